@@ -0,0 +1,261 @@
+package batch_build.azkaban.mojo;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import batch_build.common.model.tasks.CompactGraph;
+
+/**
+ * Splits the task graph into sub-flows. A sub-flow depends on another if any of its
+ * tasks has a parent in the other, so every original dependency still holds either
+ * inside a sub-flow or between sub-flows. Groups that would depend on each other in
+ * a cycle are merged.
+ */
+public class FlowPartitioner {
+
+	public enum Strategy {
+		/** One flat flow */
+		NONE,
+		/** One sub-flow per set of connected tasks */
+		COMPONENTS,
+		/** One sub-flow per task directory */
+		DIRECTORY,
+		/** Connected tasks, split into sub-flows of at most the max size */
+		SIZE
+	}
+
+	public static class SubFlow {
+		private final String name;
+		private final List<Integer> tasks = new ArrayList<>();
+		private final Set<String> dependencies = new TreeSet<>();
+
+		private SubFlow(String name) {
+			this.name = name;
+		}
+
+		public String getName(){
+			return name;
+		}
+
+		/**
+		 * Numbers of the tasks in the graph, in dependency order
+		 */
+		public List<Integer> getTasks(){
+			return tasks;
+		}
+
+		/**
+		 * Names of the sub-flows this one has to wait for
+		 */
+		public Set<String> getDependencies(){
+			return dependencies;
+		}
+	}
+
+	private final CompactGraph graph;
+
+	public FlowPartitioner(CompactGraph graph) {
+		this.graph = graph;
+	}
+
+	/**
+	 * @return the sub-flows in the order of their first task, each task in exactly one
+	 */
+	public List<SubFlow> partition(Strategy strategy, int maxSize){
+		String[] labels;
+		switch (strategy){
+		case COMPONENTS:
+			labels = componentLabels("component");
+			break;
+		case DIRECTORY:
+			labels = directoryLabels();
+			break;
+		case SIZE:
+			labels = sizeLabels(maxSize);
+			break;
+		default:
+			throw new IllegalArgumentException("Cannot partition by " + strategy);
+		}
+		return buildSubFlows(mergeCycles(labels));
+	}
+
+	private String[] componentLabels(String prefix){
+		int[] roots = new int[graph.getTaskCount()];
+		for (int i = 0; i < roots.length; i++){
+			roots[i] = i;
+		}
+		for (int i = 0; i < graph.getTaskCount(); i++){
+			for (int parent : graph.parents(i)){
+				int a = find(roots, i);
+				int b = find(roots, parent);
+				// The earliest task is kept as the root so components number in task order
+				roots[Math.max(a, b)] = Math.min(a, b);
+			}
+		}
+		Map<Integer, String> names = new HashMap<>();
+		String[] labels = new String[graph.getTaskCount()];
+		for (int i = 0; i < graph.getTaskCount(); i++){
+			int root = find(roots, i);
+			String name = names.get(root);
+			if (name == null){
+				name = prefix + "_" + (names.size() + 1);
+				names.put(root, name);
+			}
+			labels[i] = name;
+		}
+		return labels;
+	}
+
+	private static int find(int[] roots, int i){
+		while (roots[i] != i){
+			roots[i] = roots[roots[i]];
+			i = roots[i];
+		}
+		return i;
+	}
+
+	private String[] directoryLabels(){
+		String[] labels = new String[graph.getTaskCount()];
+		for (int i = 0; i < graph.getTaskCount(); i++){
+			String name = graph.name(i);
+			int slash = name.lastIndexOf('/');
+			labels[i] = slash < 0 ? "root" : name.substring(0, slash).replaceAll("[^A-Za-z0-9_.-]", "_");
+		}
+		return labels;
+	}
+
+	/**
+	 * Components, with any too large cut into consecutive runs of tasks. Tasks are in
+	 * dependency order so a run can only depend on earlier runs.
+	 */
+	private String[] sizeLabels(int maxSize){
+		String[] components = componentLabels("part");
+		Map<String, Integer> counts = new HashMap<>();
+		String[] labels = new String[graph.getTaskCount()];
+		for (int i = 0; i < graph.getTaskCount(); i++){
+			Integer count = counts.get(components[i]);
+			count = count == null ? 0 : count;
+			counts.put(components[i], count + 1);
+			int chunk = count / Math.max(1, maxSize);
+			labels[i] = chunk == 0 ? components[i] : components[i] + "_" + (chunk + 1);
+		}
+		return labels;
+	}
+
+	/**
+	 * Merges labels whose groups depend on each other in a cycle, which only directory
+	 * grouping can produce
+	 */
+	private String[] mergeCycles(String[] labels){
+		Map<String, Set<String>> groupDeps = new LinkedHashMap<>();
+		for (int i = 0; i < graph.getTaskCount(); i++){
+			Set<String> deps = groupDeps.get(labels[i]);
+			if (deps == null){
+				deps = new HashSet<>();
+				groupDeps.put(labels[i], deps);
+			}
+			for (int parent : graph.parents(i)){
+				String parentLabel = labels[parent];
+				if (!parentLabel.equals(labels[i])){
+					deps.add(parentLabel);
+				}
+			}
+		}
+		Map<String, String> merged = new StronglyConnected(groupDeps).representatives();
+		String[] result = new String[labels.length];
+		for (int i = 0; i < labels.length; i++){
+			result[i] = merged.get(labels[i]);
+		}
+		return result;
+	}
+
+	private List<SubFlow> buildSubFlows(String[] labels){
+		Map<String, SubFlow> subFlows = new LinkedHashMap<>();
+		for (int i = 0; i < graph.getTaskCount(); i++){
+			SubFlow subFlow = subFlows.get(labels[i]);
+			if (subFlow == null){
+				subFlow = new SubFlow(labels[i]);
+				subFlows.put(labels[i], subFlow);
+			}
+			subFlow.tasks.add(i);
+			for (int parent : graph.parents(i)){
+				String parentLabel = labels[parent];
+				if (!parentLabel.equals(labels[i])){
+					subFlow.dependencies.add(parentLabel);
+				}
+			}
+		}
+		return new ArrayList<>(subFlows.values());
+	}
+
+	/**
+	 * Tarjan's strongly connected components over the group graph, mapping every
+	 * group to the first group of its component
+	 */
+	private static class StronglyConnected {
+		private final Map<String, Set<String>> graph;
+		private final Map<String, Integer> index = new HashMap<>();
+		private final Map<String, Integer> lowLink = new HashMap<>();
+		private final List<String> stack = new ArrayList<>();
+		private final Set<String> onStack = new HashSet<>();
+		private final Map<String, String> representatives = new HashMap<>();
+		// Position of each group by its first task
+		private final Map<String, Integer> order = new HashMap<>();
+
+		private StronglyConnected(Map<String, Set<String>> graph) {
+			this.graph = graph;
+			for (String node : graph.keySet()){
+				order.put(node, order.size());
+			}
+		}
+
+		private Map<String, String> representatives(){
+			for (String node : graph.keySet()){
+				if (!index.containsKey(node)){
+					visit(node);
+				}
+			}
+			return representatives;
+		}
+
+		private void visit(String node){
+			index.put(node, index.size());
+			lowLink.put(node, index.get(node));
+			stack.add(node);
+			onStack.add(node);
+			for (String next : graph.get(node)){
+				if (!index.containsKey(next)){
+					visit(next);
+					lowLink.put(node, Math.min(lowLink.get(node), lowLink.get(next)));
+				} else if (onStack.contains(next)){
+					lowLink.put(node, Math.min(lowLink.get(node), index.get(next)));
+				}
+			}
+			if (lowLink.get(node).equals(index.get(node))){
+				List<String> component = new ArrayList<>();
+				String member;
+				do {
+					member = stack.remove(stack.size() - 1);
+					onStack.remove(member);
+					component.add(member);
+				} while (!member.equals(node));
+				// Named after whichever group came first in task order
+				String first = component.get(0);
+				for (String candidate : component){
+					if (order.get(candidate) < order.get(first)){
+						first = candidate;
+					}
+				}
+				for (String candidate : component){
+					representatives.put(candidate, first);
+				}
+			}
+		}
+	}
+}
@@ -1,18 +1,32 @@
 package batch_build.azkaban.mojo;
 
-import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.PrintStream;
+import java.nio.charset.Charset;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
 
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
 import org.apache.commons.io.FileUtils;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
@@ -23,90 +37,340 @@ import org.apache.maven.project.MavenProject;
 import org.codehaus.plexus.util.StringUtils;
 
 import batch_build.common.model.BatchModel;
+import batch_build.common.model.tasks.CompactGraph;
+import batch_build.common.model.tasks.CriticalPath;
 import batch_build.common.model.tasks.HiveTask;
-import batch_build.common.model.tasks.LinkedTask;
 import batch_build.common.model.tasks.PigTask;
+import batch_build.common.model.tasks.RuntimeHistory;
+import batch_build.common.model.tasks.TaskTiming;
+import batch_build.common.utils.ContentHasher;
 
+/**
+ * Packages the task scripts and a generated .job file per task into an azkaban flow zip.
+ * The zip is reproducible, entries are sorted and carry a fixed timestamp, and entries
+ * whose content is unchanged are copied still compressed from the previous zip.
+ * Large flows can be split into sub-flows, see {@link FlowPartitioner}.
+ */
 @Mojo(requiresProject = true, name = "package", defaultPhase = LifecyclePhase.PACKAGE)
 public class PackageMojo extends AbstractMojo {
 	
+	// Bump when the zip layout or job format changes so old package state is ignored
+	private static final String FORMAT_VERSION = "1";
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	// Local time fields are what a zip stores, so this is the same whatever the timezone
+	private static final long ENTRY_TIME = new GregorianCalendar(1980, Calendar.FEBRUARY, 1).getTimeInMillis();
+	
 	@Parameter(defaultValue = "${project.build.directory}/model.json", readonly = true, required = true)
 	private File modelFile;
 	
 	@Parameter(defaultValue = "${project.build.directory}/${project.name}-flow-${project.version}.zip", readonly = true, required = true)
 	private File flowFile;
 	
+	@Parameter(defaultValue = "${project.build.directory}/package-state.sha1", readonly = true, required = true)
+	private File packageStateFile;
+	
+	/**
+	 * Number of entries compressed concurrently
+	 */
+	@Parameter(property = "batch.packageThreads", defaultValue = "4")
+	private int packageThreads;
+	
+	/**
+	 * How to split the flow into embedded sub-flows: NONE, COMPONENTS (connected tasks),
+	 * DIRECTORY (task directories) or SIZE (connected tasks, at most batch.subFlowMaxSize each)
+	 */
+	@Parameter(property = "batch.subFlows", defaultValue = "NONE")
+	private FlowPartitioner.Strategy subFlows;
+	
+	@Parameter(property = "batch.subFlowMaxSize", defaultValue = "500")
+	private int subFlowMaxSize;
+	
+	/**
+	 * Recorded task runtimes, json of task name to seconds, used for the scheduling hints
+	 * in the job files. Without it any timings already in the model are used
+	 */
+	@Parameter(property = "batch.runtimeHistory", defaultValue = "${basedir}/runtime-history.json")
+	private File runtimeHistoryFile;
+	
 	@Parameter(defaultValue = "${project}", required=true)
 	private MavenProject project;
 	
-	private BatchModel model;
-	
-	private ZipOutputStream out;
+	// Entry name -> content, sorted so the zip is always written in the same order
+	private Map<String, EntryContent> entries;
 
 	public void execute() throws MojoExecutionException {
 		try {
-			model = BatchModel.read(modelFile);
-			out = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(flowFile)));
+			entries = new TreeMap<>();
 			File tasksDir = new File(project.getBuild().getOutputDirectory(), "tasks");
 			zipDir(tasksDir, tasksDir.toPath());
 			
-			Set<String> allTaskNames = new HashSet<>();
-			Set<String> nonLeafTaskNames = new HashSet<>();
-			
+			String state = packageState();
+			if (flowFile.isFile() && packageStateFile.isFile()
+					&& state.equals(FileUtils.readFileToString(packageStateFile, "UTF-8"))){
+				getLog().info("Model and tasks unchanged, skipping packaging");
+				return;
+			}
 			
-			for (LinkedTask task : model.getTasks()){
-				String taskName = task.getName();
-				allTaskNames.add(taskName);
-				out.putNextEntry(new ZipEntry(taskName + ".job"));
-				PrintStream ps = new PrintStream(out);
-				ps.println("# " + taskName);
-				if (task.getTask() instanceof HiveTask){
-					ps.println("type=hive");
-					ps.println("hive.script=" + taskName);
-				} else if (task.getTask() instanceof PigTask){
-					ps.println("type=pig");
-					ps.println("pig.script=" + taskName);
-				} else {
-					throw new RuntimeException("Unknown task type " + task.getTask().getClass().getSimpleName());
+			CompactGraph graph = readGraph();
+			if (subFlows == FlowPartitioner.Strategy.NONE){
+				List<Integer> allTasks = new ArrayList<>(graph.getTaskCount());
+				for (int i = 0; i < graph.getTaskCount(); i++){
+					allTasks.add(i);
 				}
-				if (!task.parents.isEmpty()){
-					List<String> parentNames = new ArrayList<>();
-					for (LinkedTask parent : task.parents){
-						parentNames.add(parent.getName());
-						nonLeafTaskNames.add(parent.getName());
+				addFlow("FLOW", graph, allTasks);
+			} else {
+				List<FlowPartitioner.SubFlow> partitions = new FlowPartitioner(graph).partition(subFlows, subFlowMaxSize);
+				getLog().info("Split " + graph.getTaskCount() + " tasks into " + partitions.size() + " sub-flows");
+				Set<String> allSubFlowJobs = new TreeSet<>();
+				Set<String> nonLeafSubFlowJobs = new HashSet<>();
+				for (FlowPartitioner.SubFlow subFlow : partitions){
+					String flowName = subFlow.getName() + "_FLOW";
+					addFlow(flowName, graph, subFlow.getTasks());
+					// Embeds the sub-flow in the top level flow
+					String subFlowJob = "SUBFLOW_" + subFlow.getName();
+					allSubFlowJobs.add(subFlowJob);
+					StringBuilder job = new StringBuilder();
+					job.append("type=flow\n");
+					job.append("flow.name=" + flowName + "\n");
+					if (!subFlow.getDependencies().isEmpty()){
+						Set<String> dependencyJobs = new TreeSet<>();
+						for (String dependency : subFlow.getDependencies()){
+							dependencyJobs.add("SUBFLOW_" + dependency);
+						}
+						nonLeafSubFlowJobs.addAll(dependencyJobs);
+						job.append("dependencies=" + StringUtils.join(dependencyJobs.iterator() , ",") + "\n");
 					}
-					ps.println("dependencies=" + StringUtils.join(parentNames.iterator() , ","));
+					entries.put(subFlowJob + ".job", new EntryContent(job.toString().getBytes(UTF8)));
 				}
-				ps.flush();
+				allSubFlowJobs.removeAll(nonLeafSubFlowJobs);
+				entries.put("FLOW.job", new EntryContent(("type=noop\n"
+						+ "dependencies=" + StringUtils.join(allSubFlowJobs.iterator() , ",") + "\n").getBytes(UTF8)));
 			}
 			
-			allTaskNames.removeAll(nonLeafTaskNames);
-			// allTaskNames now only contains the leaf node names
-			out.putNextEntry(new ZipEntry("FLOW.job"));
-			PrintStream ps = new PrintStream(out);
-			ps.println("type=noop");
-			ps.println("dependencies=" + StringUtils.join(allTaskNames.iterator() , ","));
-			ps.flush();
-			
-			out.close();
+			writeZip();
+			FileUtils.writeStringToFile(packageStateFile, state, "UTF-8");
 		} catch (Throwable e) {
 			throw new MojoExecutionException("Problem running mojo", e);
 		}
 	}
 	
+	/**
+	 * Reads the task graph of the model, with the timings worked out again when there is a
+	 * runtime history. Only the compact graph is kept, not the linked tasks.
+	 */
+	private CompactGraph readGraph() throws IOException{
+		// The job files only need the graph, not the scripts
+		BatchModel model = BatchModel.read(modelFile, false);
+		Map<String, Double> durations = RuntimeHistory.read(runtimeHistoryFile);
+		if (!durations.isEmpty()){
+			// The history may be newer than the model
+			CriticalPath.analyze(model.getTasks(), durations);
+		}
+		return CompactGraph.of(model);
+	}
+	
+	/**
+	 * Adds a job per task and a noop job named after the flow that ends it. Parents outside
+	 * of the given tasks are left out, those dependencies are between sub-flows instead.
+	 */
+	private void addFlow(String flowName, CompactGraph graph, List<Integer> tasks){
+		BitSet flowTasks = new BitSet(graph.getTaskCount());
+		for (int task : tasks){
+			flowTasks.set(task);
+		}
+		Set<String> allTaskNames = new TreeSet<>();
+		Set<String> nonLeafTaskNames = new HashSet<>();
+		
+		for (int task : tasks){
+			String taskName = graph.name(task);
+			allTaskNames.add(taskName);
+			StringBuilder job = new StringBuilder();
+			job.append("# " + taskName + "\n");
+			if (graph.task(task) instanceof HiveTask){
+				job.append("type=hive\n");
+				job.append("hive.script=" + taskName + "\n");
+			} else if (graph.task(task) instanceof PigTask){
+				job.append("type=pig\n");
+				job.append("pig.script=" + taskName + "\n");
+			} else {
+				throw new RuntimeException("Unknown task type " + graph.task(task).getClass().getSimpleName());
+			}
+			Set<String> parentNames = new TreeSet<>();
+			for (int parent : graph.parents(task)){
+				if (flowTasks.get(parent)){
+					parentNames.add(graph.name(parent));
+					nonLeafTaskNames.add(graph.name(parent));
+				}
+			}
+			if (!parentNames.isEmpty()){
+				job.append("dependencies=" + StringUtils.join(parentNames.iterator() , ",") + "\n");
+			}
+			TaskTiming timing = graph.timing(task);
+			if (timing != null){
+				// Scheduling hints, the longest remaining chain should be started first
+				job.append("batch.priority=" + timing.getRemaining() + "\n");
+				job.append("batch.slack=" + timing.getSlack() + "\n");
+				job.append("batch.critical=" + timing.isCritical() + "\n");
+			}
+			entries.put(taskName + ".job", new EntryContent(job.toString().getBytes(UTF8)));
+		}
+		
+		allTaskNames.removeAll(nonLeafTaskNames);
+		// allTaskNames now only contains the leaf node names
+		entries.put(flowName + ".job", new EntryContent(("type=noop\n"
+				+ "dependencies=" + StringUtils.join(allTaskNames.iterator() , ",") + "\n").getBytes(UTF8)));
+	}
+	
+	/**
+	 * Hash of everything that goes into the zip
+	 */
+	private String packageState() throws IOException{
+		ContentHasher state = new ContentHasher().update(FORMAT_VERSION)
+				.update(flowFile.getAbsolutePath()).update(subFlows.name())
+				.update(Integer.toString(subFlowMaxSize)).update(modelFile);
+		if (runtimeHistoryFile.isFile()){
+			state.update(runtimeHistoryFile);
+		}
+		for (Map.Entry<String, EntryContent> entry : entries.entrySet()){
+			state.update(entry.getKey()).update(entry.getValue().file);
+		}
+		return state.hex();
+	}
+	
+	/**
+	 * Writes the zip to a temp file, copying unchanged entries from the old zip and
+	 * compressing the rest on a thread pool, then replaces the old zip with it
+	 */
+	private void writeZip() throws Exception{
+		File tmpFile = new File(flowFile.getPath() + ".tmp");
+		ZipFile previous = flowFile.isFile() ? new ZipFile(flowFile) : null;
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, packageThreads));
+		int reused = 0;
+		try {
+			// Work out what can be reused before writing anything so compression can run ahead
+			Map<String, ZipArchiveEntry> reusable = new TreeMap<>();
+			Map<String, Future<DeflatedEntry>> deflated = new TreeMap<>();
+			for (Map.Entry<String, EntryContent> entry : entries.entrySet()){
+				final EntryContent content = entry.getValue();
+				byte[] bytes = content.read();
+				CRC32 crc = new CRC32();
+				crc.update(bytes);
+				ZipArchiveEntry previousEntry = previous != null ? previous.getEntry(entry.getKey()) : null;
+				if (previousEntry != null && previousEntry.getMethod() == ZipEntry.DEFLATED
+						&& previousEntry.getCrc() == crc.getValue() && previousEntry.getSize() == bytes.length){
+					reusable.put(entry.getKey(), previousEntry);
+				} else {
+					deflated.put(entry.getKey(), executor.submit(new Callable<DeflatedEntry>() {
+						@Override
+						public DeflatedEntry call() throws Exception {
+							return DeflatedEntry.deflate(content.read());
+						}
+					}));
+				}
+			}
+			
+			ZipArchiveOutputStream out = new ZipArchiveOutputStream(tmpFile);
+			try {
+				for (String name : entries.keySet()){
+					ZipArchiveEntry previousEntry = reusable.get(name);
+					if (previousEntry != null){
+						out.addRawArchiveEntry(newEntry(name, previousEntry.getCrc(), previousEntry.getSize(),
+								previousEntry.getCompressedSize()), previous.getRawInputStream(previousEntry));
+						reused++;
+					} else {
+						DeflatedEntry entry = deflated.get(name).get();
+						out.addRawArchiveEntry(newEntry(name, entry.crc, entry.size, entry.compressed.length),
+								new ByteArrayInputStream(entry.compressed));
+					}
+				}
+			} finally {
+				out.close();
+			}
+		} finally {
+			executor.shutdownNow();
+			if (previous != null){
+				previous.close();
+			}
+		}
+		FileUtils.deleteQuietly(flowFile);
+		FileUtils.moveFile(tmpFile, flowFile);
+		getLog().info("Packaged " + entries.size() + " entries, " + reused + " reused from the previous zip");
+	}
 	
+	private static ZipArchiveEntry newEntry(String name, long crc, long size, long compressedSize){
+		ZipArchiveEntry entry = new ZipArchiveEntry(name);
+		entry.setMethod(ZipEntry.DEFLATED);
+		entry.setCrc(crc);
+		entry.setSize(size);
+		entry.setCompressedSize(compressedSize);
+		entry.setTime(ENTRY_TIME);
+		return entry;
+	}
 	
 	private void zipDir(File dir, Path baseDir) throws IOException{
-		for (File f : dir.listFiles()){
+		File[] files = dir.listFiles();
+		if (files == null){
+			return;
+		}
+		for (File f : files){
 			if (f.isFile()){
 				String relativePath = baseDir.relativize(f.toPath()).toString().replace('\\', '/');
-				ZipEntry z = new ZipEntry(relativePath);
-				out.putNextEntry(z);
-				FileUtils.copyFile(f, out);
+				entries.put(relativePath, new EntryContent(f));
 			}else {
 				zipDir(f, baseDir);
 			}
 		}
 	}
 	
+	/**
+	 * Either a task file or generated job text
+	 */
+	private static class EntryContent {
+		private final File file;
+		private final byte[] bytes;
+		
+		private EntryContent(File file) {
+			this.file = file;
+			this.bytes = null;
+		}
+		
+		private EntryContent(byte[] bytes) {
+			this.file = null;
+			this.bytes = bytes;
+		}
+		
+		private byte[] read() throws IOException{
+			return file != null ? FileUtils.readFileToByteArray(file) : bytes;
+		}
+	}
+	
+	private static class DeflatedEntry {
+		private long crc;
+		private long size;
+		private byte[] compressed;
+		
+		private static DeflatedEntry deflate(byte[] bytes){
+			DeflatedEntry entry = new DeflatedEntry();
+			CRC32 crc = new CRC32();
+			crc.update(bytes);
+			entry.crc = crc.getValue();
+			entry.size = bytes.length;
+			// Raw deflate, the zip entry carries the header information
+			Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+			try {
+				deflater.setInput(bytes);
+				deflater.finish();
+				ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, bytes.length / 2));
+				byte[] buffer = new byte[8192];
+				while (!deflater.finished()){
+					out.write(buffer, 0, deflater.deflate(buffer));
+				}
+				entry.compressed = out.toByteArray();
+			} finally {
+				deflater.end();
+			}
+			return entry;
+		}
+	}
+	
 }
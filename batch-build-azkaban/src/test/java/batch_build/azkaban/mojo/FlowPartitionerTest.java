@@ -0,0 +1,228 @@
+package batch_build.azkaban.mojo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import batch_build.azkaban.mojo.FlowPartitioner.Strategy;
+import batch_build.azkaban.mojo.FlowPartitioner.SubFlow;
+import batch_build.common.model.tasks.CompactGraph;
+import batch_build.common.model.tasks.HiveTask;
+import batch_build.common.model.tasks.LinkedTask;
+
+public class FlowPartitionerTest extends TestCase {
+
+	public void testComponents(){
+		Random random = new Random(1);
+		for (int dag = 0; dag < 300; dag++){
+			CompactGraph graph = randomGraph(random);
+			List<SubFlow> subFlows = new FlowPartitioner(graph).partition(Strategy.COMPONENTS, 0);
+			String message = "dag " + dag;
+			assertValid(message, graph, subFlows);
+			for (SubFlow subFlow : subFlows){
+				assertTrue(message, subFlow.getDependencies().isEmpty());
+			}
+		}
+	}
+
+	public void testDirectory(){
+		Random random = new Random(2);
+		int merged = 0;
+		for (int dag = 0; dag < 300; dag++){
+			CompactGraph graph = randomGraph(random);
+			List<SubFlow> subFlows = new FlowPartitioner(graph).partition(Strategy.DIRECTORY, 0);
+			String message = "dag " + dag;
+			Map<Integer, SubFlow> flows = assertValid(message, graph, subFlows);
+
+			// Directories share a sub-flow exactly when they depend on each other in a cycle
+			List<String> directories = new ArrayList<>();
+			Map<String, SubFlow> directoryFlows = new HashMap<>();
+			for (int i = 0; i < graph.getTaskCount(); i++){
+				String directory = directory(graph.name(i));
+				SubFlow flow = directoryFlows.get(directory);
+				if (flow == null){
+					directories.add(directory);
+					directoryFlows.put(directory, flows.get(i));
+				} else {
+					assertSame(message + " " + directory + " split", flow, flows.get(i));
+				}
+			}
+			boolean[][] reaches = directoryReachability(graph, directories);
+			for (int a = 0; a < directories.size(); a++){
+				for (int b = a + 1; b < directories.size(); b++){
+					boolean cycle = reaches[a][b] && reaches[b][a];
+					boolean together = directoryFlows.get(directories.get(a)) == directoryFlows.get(directories.get(b));
+					assertEquals(message + " " + directories.get(a) + " and " + directories.get(b), cycle, together);
+					if (together){
+						merged++;
+					}
+				}
+			}
+		}
+		assertTrue("Only " + merged + " directories were merged", merged > 50);
+	}
+
+	public void testSize(){
+		Random random = new Random(3);
+		for (int dag = 0; dag < 300; dag++){
+			CompactGraph graph = randomGraph(random);
+			int maxSize = 1 + random.nextInt(6);
+			List<SubFlow> subFlows = new FlowPartitioner(graph).partition(Strategy.SIZE, maxSize);
+			String message = "dag " + dag + " max " + maxSize;
+			assertValid(message, graph, subFlows);
+			for (SubFlow subFlow : subFlows){
+				assertTrue(message + " " + subFlow.getName(), subFlow.getTasks().size() <= maxSize);
+			}
+		}
+	}
+
+	public void testDirectoryCycleMerged(){
+		CompactGraph graph = graph(
+				"a/first", "",
+				"b/second", "0",
+				"a/third", "1",
+				"c/fourth", "0");
+		List<SubFlow> subFlows = new FlowPartitioner(graph).partition(Strategy.DIRECTORY, 0);
+		assertEquals(2, subFlows.size());
+		assertEquals("a", subFlows.get(0).getName());
+		assertEquals(Arrays.asList(0, 1, 2), subFlows.get(0).getTasks());
+		assertEquals("c", subFlows.get(1).getName());
+		assertEquals(Arrays.asList(3), subFlows.get(1).getTasks());
+		assertEquals(new HashSet<>(Arrays.asList("a")), subFlows.get(1).getDependencies());
+	}
+
+	/**
+	 * Checks every task is in exactly one sub-flow, in order, every parent is in the same
+	 * sub-flow or one depended on, and the sub-flows do not depend on each other in a cycle
+	 * @return the sub-flow of each task
+	 */
+	private static Map<Integer, SubFlow> assertValid(String message, CompactGraph graph, List<SubFlow> subFlows){
+		Map<Integer, SubFlow> flows = new HashMap<>();
+		Map<String, SubFlow> byName = new HashMap<>();
+		for (SubFlow subFlow : subFlows){
+			assertNull(message + " " + subFlow.getName() + " twice", byName.put(subFlow.getName(), subFlow));
+			int previous = -1;
+			for (int task : subFlow.getTasks()){
+				assertNull(message + " task " + task + " twice", flows.put(task, subFlow));
+				assertTrue(message + " " + subFlow.getName() + " out of order", task > previous);
+				previous = task;
+			}
+		}
+		assertEquals(message, graph.getTaskCount(), flows.size());
+
+		for (int i = 0; i < graph.getTaskCount(); i++){
+			SubFlow flow = flows.get(i);
+			for (int parent : graph.parents(i)){
+				SubFlow parentFlow = flows.get(parent);
+				assertTrue(message + " " + graph.name(parent) + " -> " + graph.name(i) + " lost",
+						parentFlow == flow || flow.getDependencies().contains(parentFlow.getName()));
+			}
+		}
+
+		// Kahn's algorithm gets through every sub-flow only if there is no cycle
+		Map<String, Integer> waiting = new HashMap<>();
+		Map<String, List<String>> dependents = new HashMap<>();
+		List<String> ready = new ArrayList<>();
+		for (SubFlow subFlow : subFlows){
+			waiting.put(subFlow.getName(), subFlow.getDependencies().size());
+			dependents.put(subFlow.getName(), new ArrayList<String>());
+			if (subFlow.getDependencies().isEmpty()){
+				ready.add(subFlow.getName());
+			}
+		}
+		for (SubFlow subFlow : subFlows){
+			for (String dependency : subFlow.getDependencies()){
+				assertTrue(message + " unknown " + dependency, dependents.containsKey(dependency));
+				assertFalse(message + " " + subFlow.getName() + " on itself", dependency.equals(subFlow.getName()));
+				dependents.get(dependency).add(subFlow.getName());
+			}
+		}
+		int done = 0;
+		while (!ready.isEmpty()){
+			String name = ready.remove(ready.size() - 1);
+			done++;
+			for (String dependent : dependents.get(name)){
+				int left = waiting.get(dependent) - 1;
+				waiting.put(dependent, left);
+				if (left == 0){
+					ready.add(dependent);
+				}
+			}
+		}
+		assertEquals(message + " sub-flows in a cycle", subFlows.size(), done);
+		return flows;
+	}
+
+	/**
+	 * Whether any task of each directory depends, through any chain of tasks, on a task
+	 * of another
+	 */
+	private static boolean[][] directoryReachability(CompactGraph graph, List<String> directories){
+		int count = directories.size();
+		boolean[][] reaches = new boolean[count][count];
+		for (int i = 0; i < graph.getTaskCount(); i++){
+			int child = directories.indexOf(directory(graph.name(i)));
+			for (int parent : graph.parents(i)){
+				reaches[child][directories.indexOf(directory(graph.name(parent)))] = true;
+			}
+		}
+		for (int k = 0; k < count; k++){
+			for (int a = 0; a < count; a++){
+				for (int b = 0; b < count; b++){
+					reaches[a][b] |= reaches[a][k] && reaches[k][b];
+				}
+			}
+		}
+		return reaches;
+	}
+
+	private static String directory(String name){
+		int slash = name.lastIndexOf('/');
+		return slash < 0 ? "root" : name.substring(0, slash);
+	}
+
+	/**
+	 * Tasks spread over a few directories, each with a few parents among the earlier tasks
+	 */
+	private static CompactGraph randomGraph(Random random){
+		int taskCount = 1 + random.nextInt(40);
+		int directoryCount = 1 + random.nextInt(6);
+		List<LinkedTask> linkedTasks = new ArrayList<>();
+		for (int i = 0; i < taskCount; i++){
+			int directory = random.nextInt(directoryCount + 1);
+			String name = directory == 0 ? "task" + i : "dir" + directory + "/task" + i;
+			LinkedTask linkedTask = linkedTask(name);
+			for (int j = i == 0 ? 0 : random.nextInt(3); j > 0; j--){
+				linkedTask.getParents().add(linkedTasks.get(random.nextInt(i)));
+			}
+			linkedTasks.add(linkedTask);
+		}
+		return CompactGraph.of(linkedTasks);
+	}
+
+	/**
+	 * @param tasksAndParents each task's name followed by the comma separated numbers of its parents
+	 */
+	private static CompactGraph graph(String... tasksAndParents){
+		List<LinkedTask> linkedTasks = new ArrayList<>();
+		for (int i = 0; i < tasksAndParents.length; i += 2){
+			LinkedTask linkedTask = linkedTask(tasksAndParents[i]);
+			for (String parent : tasksAndParents[i + 1].split(",")){
+				if (!parent.isEmpty()){
+					linkedTask.getParents().add(linkedTasks.get(Integer.parseInt(parent)));
+				}
+			}
+			linkedTasks.add(linkedTask);
+		}
+		return CompactGraph.of(linkedTasks);
+	}
+
+	private static LinkedTask linkedTask(String name){
+		return new LinkedTask(new HiveTask(name, new HashSet<String>(), new HashSet<String>(), "-- " + name));
+	}
+}
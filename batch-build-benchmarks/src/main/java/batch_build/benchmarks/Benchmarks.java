@@ -0,0 +1,46 @@
+package batch_build.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.file.Files;
+
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+
+/**
+ * Helpers shared by the benchmarks
+ */
+class Benchmarks {
+
+	private Benchmarks(){}
+
+	static File tempDir(String prefix) throws IOException{
+		return Files.createTempDirectory("batch-build-" + prefix).toFile();
+	}
+
+	/**
+	 * Sets a mojo parameter the way maven does
+	 */
+	static void inject(Object mojo, String name, Object value) throws ReflectiveOperationException{
+		Field field = mojo.getClass().getDeclaredField(name);
+		field.setAccessible(true);
+		field.set(mojo, value);
+	}
+
+	/**
+	 * Keeps the progress a mojo logs out of the benchmark output, warnings still show
+	 */
+	static Log quietLog(){
+		return new SystemStreamLog(){
+			@Override
+			public boolean isInfoEnabled(){
+				return false;
+			}
+
+			@Override
+			public void info(CharSequence content){
+			}
+		};
+	}
+}
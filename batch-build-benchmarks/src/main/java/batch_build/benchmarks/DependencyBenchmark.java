@@ -0,0 +1,73 @@
+package batch_build.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import batch_build.common.model.tasks.DependencyDiff;
+import batch_build.common.model.tasks.DependencyOptimizer;
+import batch_build.common.model.tasks.HiveTask;
+import batch_build.common.model.tasks.LinkedTask;
+import batch_build.common.model.tasks.Task;
+
+/**
+ * Linking the task graph, from scratch and after one script changed
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class DependencyBenchmark {
+
+	@Param({"1000", "5000", "20000"})
+	private int taskCount;
+
+	@Param({"2", "8"})
+	private int fanIn;
+
+	@Param({"0.0", "0.3"})
+	private double resourceReuse;
+
+	private List<Task> tasks;
+	private List<Task> changedTasks;
+	private List<LinkedTask> linkedTasks;
+
+	@Setup
+	public void setUp(){
+		tasks = new SyntheticDag(taskCount, fanIn, resourceReuse, 1).getTasks();
+		linkedTasks = DependencyOptimizer.optimizeDeps(tasks);
+
+		// The middle script now also reads the first table
+		changedTasks = new ArrayList<>(tasks);
+		Task changed = tasks.get(tasks.size() / 2);
+		List<String> sources = new ArrayList<>(changed.getSourceResources());
+		sources.addAll(tasks.get(0).getSinkResources());
+		changedTasks.set(tasks.size() / 2, new HiveTask(changed.getName(), new TreeSet<>(sources),
+				changed.getSinkResources(), changed.getSource() + "\n"));
+	}
+
+	@Benchmark
+	public List<LinkedTask> optimizeDeps(){
+		return DependencyOptimizer.optimizeDeps(tasks);
+	}
+
+	@Benchmark
+	public List<LinkedTask> optimizeDepsIncremental(){
+		return DependencyOptimizer.optimizeDeps(changedTasks, linkedTasks, new DependencyDiff());
+	}
+}
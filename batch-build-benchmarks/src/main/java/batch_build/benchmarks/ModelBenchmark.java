@@ -0,0 +1,81 @@
+package batch_build.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import batch_build.common.model.BatchModel;
+import batch_build.common.model.tasks.CompactGraph;
+
+/**
+ * Writing and reading the model in either format, with and without the sources, and
+ * turning it into a {@link CompactGraph}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ModelBenchmark {
+
+	@Param({"1000", "5000"})
+	private int taskCount;
+
+	@Param({"JSON", "SMILE"})
+	private BatchModel.Format format;
+
+	private File dir;
+	private File modelFile;
+	private File writtenFile;
+	private BatchModel model;
+
+	@Setup
+	public void setUp() throws IOException{
+		dir = Benchmarks.tempDir("model");
+		modelFile = new File(dir, "model");
+		writtenFile = new File(dir, "written");
+		model = new SyntheticDag(taskCount, 4, 0.1, 1).model();
+		model.writeModel(modelFile, format);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException{
+		FileUtils.deleteDirectory(dir);
+	}
+
+	@Benchmark
+	public File write() throws IOException{
+		model.writeModel(writtenFile, format);
+		return writtenFile;
+	}
+
+	@Benchmark
+	public BatchModel read() throws IOException{
+		return BatchModel.read(modelFile);
+	}
+
+	@Benchmark
+	public BatchModel readWithoutSources() throws IOException{
+		return BatchModel.read(modelFile, false);
+	}
+
+	@Benchmark
+	public CompactGraph readCompact() throws IOException{
+		return CompactGraph.of(BatchModel.read(modelFile, false));
+	}
+}
@@ -0,0 +1,102 @@
+package batch_build.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.project.MavenProject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import batch_build.azkaban.mojo.FlowPartitioner;
+import batch_build.azkaban.mojo.PackageMojo;
+import batch_build.common.model.BatchModel;
+
+/**
+ * The package goal on a compiled project: reading the model, generating the job files and
+ * writing the zip, either from scratch or reusing the entries of the previous zip
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class PackageBenchmark {
+
+	@Param({"1000", "5000"})
+	private int taskCount;
+
+	@Param({"NONE", "SIZE"})
+	private FlowPartitioner.Strategy subFlows;
+
+	@Param({"false", "true"})
+	private boolean previousZip;
+
+	private File dir;
+	private File flowFile;
+	private File packageStateFile;
+	private PackageMojo mojo;
+
+	@Setup
+	public void setUp() throws Exception{
+		dir = Benchmarks.tempDir("package");
+		SyntheticDag dag = new SyntheticDag(taskCount, 4, 0.1, 1);
+		File classesDir = new File(dir, "classes");
+		dag.writeScripts(new File(classesDir, "tasks"));
+		BatchModel model = dag.model();
+		File modelFile = new File(dir, "model.json");
+		model.writeModel(modelFile);
+		flowFile = new File(dir, "flow.zip");
+		packageStateFile = new File(dir, "package-state.sha1");
+
+		MavenProject project = new MavenProject();
+		project.getBuild().setOutputDirectory(classesDir.getPath());
+		mojo = new PackageMojo();
+		mojo.setLog(Benchmarks.quietLog());
+		Benchmarks.inject(mojo, "modelFile", modelFile);
+		Benchmarks.inject(mojo, "flowFile", flowFile);
+		Benchmarks.inject(mojo, "packageStateFile", packageStateFile);
+		Benchmarks.inject(mojo, "packageThreads", 4);
+		Benchmarks.inject(mojo, "subFlows", subFlows);
+		Benchmarks.inject(mojo, "subFlowMaxSize", 500);
+		Benchmarks.inject(mojo, "runtimeHistoryFile", new File(dir, "runtime-history.json"));
+		Benchmarks.inject(mojo, "project", project);
+		mojo.execute();
+	}
+
+	/**
+	 * Makes the next run package again rather than find nothing changed
+	 */
+	@Setup(Level.Invocation)
+	public void forgetPackageState(){
+		packageStateFile.delete();
+		if (!previousZip){
+			flowFile.delete();
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws IOException{
+		FileUtils.deleteDirectory(dir);
+	}
+
+	@Benchmark
+	public File packageFlow() throws MojoExecutionException{
+		mojo.execute();
+		return flowFile;
+	}
+}
@@ -0,0 +1,91 @@
+package batch_build.benchmarks;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import batch_build.common.model.tasks.CompactGraph;
+import batch_build.common.model.tasks.DependencyOptimizer;
+import batch_build.common.model.tasks.LinkedTask;
+
+/**
+ * Asking whether a task depends on an earlier one. {@link LinkedTask#isDependentOn(LinkedTask)}
+ * follows every path up the graph, which grows exponentially with its depth and fan-in, so
+ * the graphs are kept far smaller than in {@link DependencyBenchmark}.
+ * {@link CompactGraph#isDependentOn(int, int)} visits each task once.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ReachabilityBenchmark {
+
+	private static final int QUERIES = 10;
+
+	@Param({"100", "200"})
+	private int taskCount;
+
+	@Param({"2", "4"})
+	private int fanIn;
+
+	@Param({"0.0", "0.3"})
+	private double resourceReuse;
+
+	private LinkedTask[] from;
+	private LinkedTask[] to;
+	private CompactGraph graph;
+	private int[] fromNumbers;
+	private int[] toNumbers;
+
+	@Setup
+	public void setUp(){
+		List<LinkedTask> linkedTasks = DependencyOptimizer.optimizeDeps(
+				new SyntheticDag(taskCount, fanIn, resourceReuse, 1).getTasks());
+		graph = CompactGraph.of(linkedTasks);
+		Random random = new Random(2);
+		from = new LinkedTask[QUERIES];
+		to = new LinkedTask[QUERIES];
+		fromNumbers = new int[QUERIES];
+		toNumbers = new int[QUERIES];
+		for (int i = 0; i < QUERIES; i++){
+			int a = random.nextInt(linkedTasks.size());
+			int b = random.nextInt(linkedTasks.size());
+			fromNumbers[i] = Math.max(a, b);
+			toNumbers[i] = Math.min(a, b);
+			from[i] = linkedTasks.get(fromNumbers[i]);
+			to[i] = linkedTasks.get(toNumbers[i]);
+		}
+	}
+
+	/**
+	 * {@value #QUERIES} queries per call, of later tasks about earlier ones
+	 */
+	@Benchmark
+	public void isDependentOn(Blackhole blackhole){
+		for (int i = 0; i < QUERIES; i++){
+			blackhole.consume(from[i].isDependentOn(to[i]));
+		}
+	}
+
+	@Benchmark
+	public void isDependentOnCompact(Blackhole blackhole){
+		for (int i = 0; i < QUERIES; i++){
+			blackhole.consume(graph.isDependentOn(fromNumbers[i], toNumbers[i]));
+		}
+	}
+}
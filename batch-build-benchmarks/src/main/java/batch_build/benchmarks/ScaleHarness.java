@@ -0,0 +1,173 @@
+package batch_build.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.FileUtils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Builds a generated {@link ScaleProject} with maven end to end and records, for each run,
+ * the wall time, the peak heap of the maven jvm and the size of what it wrote. The runs
+ * are a compile from nothing, a compile with nothing changed and the package goal on its
+ * own. The peak heap is the heap in use when the jvm collected the most garbage, read from
+ * its gc log, so it leaves out whatever a batch.daemon compile uses. Results are written to
+ * scale-results/results.json next to the project, with the build output of each run.
+ *
+ * <pre>java -cp batch-build-benchmarks/target/benchmarks.jar batch_build.benchmarks.ScaleHarness
+ *     [--tasks 20000] [--tables 5000] [--fanIn 3] [--seed 1] [--pluginVersion 0.0.1-SNAPSHOT]
+ *     [--mvn mvn] [--mavenOpts -Xmx4g] [--keepProject] &lt;project dir&gt;</pre>
+ */
+public class ScaleHarness {
+
+	// e.g. 65536K->3456K(251392K) from java 8 or 24M->3M(256M) from later jvms
+	private static final Pattern GC_LINE = Pattern.compile("(\\d+)([KMG])->\\d+[KMG]\\(\\d+[KMG]\\)");
+
+	private int taskCount = 20000;
+	private int tableCount = 5000;
+	private int fanIn = 3;
+	private long seed = 1;
+	private String pluginVersion = "0.0.1-SNAPSHOT";
+	private String mvn = "mvn";
+	private String mavenOpts = "";
+	// Builds the project already in the dir rather than generating it again
+	private boolean keepProject;
+	private File projectDir;
+	private File resultsDir;
+
+	public static void main(String[] args) throws Exception {
+		ScaleHarness harness = new ScaleHarness(args);
+		System.exit(harness.run() ? 0 : 1);
+	}
+
+	private ScaleHarness(String[] args) {
+		for (int i = 0; i < args.length; i++){
+			String arg = args[i];
+			if (arg.equals("--keepProject")){
+				keepProject = true;
+			} else if (arg.startsWith("--") && i + 1 < args.length){
+				String value = args[++i];
+				switch (arg) {
+				case "--tasks": taskCount = Integer.parseInt(value); break;
+				case "--tables": tableCount = Integer.parseInt(value); break;
+				case "--fanIn": fanIn = Integer.parseInt(value); break;
+				case "--seed": seed = Long.parseLong(value); break;
+				case "--pluginVersion": pluginVersion = value; break;
+				case "--mvn": mvn = value; break;
+				case "--mavenOpts": mavenOpts = value; break;
+				default: throw new IllegalArgumentException("Unknown option " + arg);
+				}
+			} else if (projectDir == null && !arg.startsWith("--")){
+				projectDir = new File(arg).getAbsoluteFile();
+			} else {
+				throw new IllegalArgumentException("Unexpected argument " + arg);
+			}
+		}
+		if (projectDir == null){
+			throw new IllegalArgumentException("No project dir given");
+		}
+		resultsDir = new File(projectDir.getParentFile(), "scale-results");
+	}
+
+	/**
+	 * @return false if a build failed, the runs after it are skipped
+	 */
+	private boolean run() throws Exception {
+		Map<String, Object> results = new LinkedHashMap<>();
+		results.put("tasks", taskCount);
+		results.put("tables", tableCount);
+		results.put("fanIn", fanIn);
+		results.put("seed", seed);
+		if (!keepProject){
+			long start = System.nanoTime();
+			new ScaleProject(taskCount, tableCount, fanIn, seed).write(projectDir, pluginVersion);
+			results.put("generateMillis", (System.nanoTime() - start) / 1000000);
+			System.out.println("Generated " + projectDir);
+		}
+		FileUtils.deleteQuietly(resultsDir);
+		resultsDir.mkdirs();
+		FileUtils.deleteDirectory(new File(projectDir, "target"));
+
+		List<Map<String, Object>> runs = new ArrayList<>();
+		results.put("runs", runs);
+		boolean ok = build("compile", runs, "compile")
+				&& build("recompile", runs, "compile")
+				&& build("package", runs, "batchbuilder:batch-build-azkaban:" + pluginVersion + ":package");
+		File resultsFile = new File(resultsDir, "results.json");
+		new ObjectMapper().writer().withDefaultPrettyPrinter().writeValue(resultsFile, results);
+		System.out.println("Results in " + resultsFile);
+		return ok;
+	}
+
+	private boolean build(String name, List<Map<String, Object>> runs, String... goals) throws Exception {
+		File log = new File(resultsDir, name + ".log");
+		File gcLog = new File(resultsDir, name + "-gc.log");
+		List<String> command = new ArrayList<>(Arrays.asList(mvn, "-B"));
+		command.addAll(Arrays.asList(goals));
+		ProcessBuilder builder = new ProcessBuilder(command).directory(projectDir)
+				.redirectErrorStream(true).redirectOutput(log);
+		String inherited = System.getenv("MAVEN_OPTS");
+		builder.environment().put("MAVEN_OPTS", ((inherited != null ? inherited : "") + " " + mavenOpts
+				+ " -Xloggc:" + gcLog.getPath()).trim());
+
+		System.out.println("Running " + name + ": " + command);
+		long start = System.nanoTime();
+		int exitCode = builder.start().waitFor();
+		long millis = (System.nanoTime() - start) / 1000000;
+
+		Map<String, Object> run = new LinkedHashMap<>();
+		run.put("name", name);
+		run.put("goals", Arrays.asList(goals));
+		run.put("exitCode", exitCode);
+		run.put("millis", millis);
+		run.put("peakHeapBytes", peakHeap(gcLog));
+		run.put("outputBytes", outputSizes(new File(projectDir, "target")));
+		runs.add(run);
+		System.out.println(name + ": " + millis + "ms, peak heap " + (Long) run.get("peakHeapBytes") / (1024 * 1024)
+				+ "MB" + (exitCode != 0 ? ", failed, see " + log : ""));
+		return exitCode == 0;
+	}
+
+	/**
+	 * The most heap in use before any collection, 0 if the jvm never collected
+	 */
+	static long peakHeap(File gcLog) throws IOException{
+		if (!gcLog.isFile()){
+			return 0;
+		}
+		long peak = 0;
+		Matcher matcher = GC_LINE.matcher(FileUtils.readFileToString(gcLog, "UTF-8"));
+		while (matcher.find()){
+			String unit = matcher.group(2);
+			long bytes = unit.equals("G") ? 1L << 30 : unit.equals("M") ? 1L << 20 : 1L << 10;
+			peak = Math.max(peak, Long.parseLong(matcher.group(1)) * bytes);
+		}
+		return peak;
+	}
+
+	/**
+	 * Sizes of the model, reports, caches and flow zip the build left, and of the whole target dir
+	 */
+	private static Map<String, Long> outputSizes(File targetDir){
+		Map<String, Long> sizes = new LinkedHashMap<>();
+		if (!targetDir.isDirectory()){
+			return sizes;
+		}
+		for (File file : targetDir.listFiles()){
+			if (file.getName().startsWith("model.") || file.getName().equals("docs") || file.getName().equals("sources")
+					|| file.getName().endsWith("-cache.json") || file.getName().endsWith(".zip")){
+				sizes.put(file.getName(), FileUtils.sizeOf(file));
+			}
+		}
+		sizes.put("target", FileUtils.sizeOfDirectory(targetDir));
+		return sizes;
+	}
+}
@@ -0,0 +1,83 @@
+package batch_build.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.io.FileUtils;
+
+import batch_build.common.model.resources.HCatResource;
+import batch_build.common.model.resources.Resource;
+
+/**
+ * Writes a {@link SyntheticDag} out as a project the plugins can build, laid out like
+ * batch-build-sample: a DDL file per table under tables/&lt;db&gt;/ and the scripts under tasks/.
+ */
+public class ScaleProject {
+
+	private final int taskCount;
+	private final int tableCount;
+	private final int fanIn;
+	private final long seed;
+
+	/**
+	 * @param tableCount about how many tables the scripts write, one per script at most
+	 */
+	public ScaleProject(int taskCount, int tableCount, int fanIn, long seed) {
+		this.taskCount = taskCount;
+		this.tableCount = tableCount;
+		this.fanIn = fanIn;
+		this.seed = seed;
+	}
+
+	/**
+	 * Replaces whatever is in the dir with the project
+	 * @param pluginVersion of the batch-build plugins to build it with
+	 */
+	public void write(File dir, String pluginVersion) throws IOException{
+		// The chance of a script writing an existing table, for tableCount tables in all
+		double resourceReuse = taskCount == 0 ? 0 : Math.max(0, 1 - (double) tableCount / taskCount);
+		SyntheticDag dag = new SyntheticDag(taskCount, fanIn, resourceReuse, seed);
+
+		FileUtils.deleteQuietly(dir);
+		File tablesDir = new File(dir, "tables");
+		for (Resource resource : dag.getResources().values()){
+			HCatResource table = (HCatResource) resource;
+			FileUtils.writeStringToFile(new File(tablesDir, table.getDbName() + "/" + table.getTableName() + ".hql"),
+					table.getSource(), "UTF-8");
+		}
+		dag.writeScripts(new File(dir, "tasks"));
+		FileUtils.writeStringToFile(new File(dir, "pom.xml"), pom(pluginVersion), "UTF-8");
+	}
+
+	private String pom(String pluginVersion){
+		return "<project xmlns=\"http://maven.apache.org/POM/4.0.0\" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"\n"
+				+ "\txsi:schemaLocation=\"http://maven.apache.org/POM/4.0.0 http://maven.apache.org/xsd/maven-4.0.0.xsd\">\n"
+				+ "\t<modelVersion>4.0.0</modelVersion>\n"
+				+ "\t<groupId>batchbuilder</groupId>\n"
+				+ "\t<artifactId>batch-build-scale</artifactId>\n"
+				+ "\t<version>" + taskCount + "-" + tableCount + "-" + fanIn + "-" + seed + "</version>\n"
+				+ "\n"
+				+ "\t<build>\n"
+				+ "\t\t<plugins>\n"
+				+ plugin("batch-build-maven", pluginVersion, "compile")
+				+ plugin("batch-build-azkaban", pluginVersion, "package")
+				+ "\t\t</plugins>\n"
+				+ "\t</build>\n"
+				+ "</project>\n";
+	}
+
+	private static String plugin(String artifactId, String version, String goal){
+		return "\t\t\t<plugin>\n"
+				+ "\t\t\t\t<groupId>batchbuilder</groupId>\n"
+				+ "\t\t\t\t<artifactId>" + artifactId + "</artifactId>\n"
+				+ "\t\t\t\t<version>" + version + "</version>\n"
+				+ "\t\t\t\t<executions>\n"
+				+ "\t\t\t\t\t<execution>\n"
+				+ "\t\t\t\t\t\t<goals>\n"
+				+ "\t\t\t\t\t\t\t<goal>" + goal + "</goal>\n"
+				+ "\t\t\t\t\t\t</goals>\n"
+				+ "\t\t\t\t\t</execution>\n"
+				+ "\t\t\t\t</executions>\n"
+				+ "\t\t\t</plugin>\n";
+	}
+}
@@ -0,0 +1,194 @@
+package batch_build.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.commons.io.FileUtils;
+
+import batch_build.common.model.BatchModel;
+import batch_build.common.model.resources.HCatResource;
+import batch_build.common.model.resources.HCatResource.HCatColumn;
+import batch_build.common.model.resources.Resource;
+import batch_build.common.model.tasks.DependencyOptimizer;
+import batch_build.common.model.tasks.HiveTask;
+import batch_build.common.model.tasks.Task;
+
+/**
+ * A made up project of hive scripts over hcat tables, shaped by how many tasks there are,
+ * how many tables each reads and how often a table is written by more than one task. Tasks
+ * read tables written by the tasks shortly before them, so the graph gets deeper as it gets
+ * bigger, like a real flow does. Every table is partitioned by day and by the task writing
+ * it, and every task reads the day's partitions, so tasks sharing a table can run side by
+ * side while its readers wait for all of them. The scripts and DDL are real hive, so the
+ * project can also be compiled, see {@link ScaleProject}. The same arguments always give
+ * the same project.
+ */
+public class SyntheticDag {
+
+	private static final int TASKS_PER_DIR = 50;
+	private static final int TABLES_PER_DB = 200;
+	// Tasks read from the tables written by this many tasks before them
+	private static final int READ_WINDOW = 100;
+	private static final String DAY = "2015-01-01";
+	private static final String[] COLUMNS = {"id", "amount", "label", "score"};
+
+	private final List<Task> tasks = new ArrayList<>();
+	private final Map<String, Resource> resources = new HashMap<>();
+
+	/**
+	 * @param taskCount number of scripts
+	 * @param fanIn tables read by each script, at least one. There are as many raw tables,
+	 * written by none of the scripts, for the first ones to read
+	 * @param resourceReuse chance of a script writing to an existing table rather than its own
+	 */
+	public SyntheticDag(int taskCount, int fanIn, double resourceReuse, long seed) {
+		Random random = new Random(seed);
+		List<String> tables = new ArrayList<>();
+		for (int i = 0; i < Math.max(2, fanIn); i++){
+			tables.add(addTable(tables.size()));
+		}
+		for (int i = 0; i < taskCount; i++){
+			String name = String.format("stage%02d/group%04d/task%06d.hql", i / (TASKS_PER_DIR * 20), i / TASKS_PER_DIR, i);
+			String sink;
+			if (random.nextDouble() < resourceReuse){
+				sink = tables.get(random.nextInt(tables.size()));
+			} else {
+				sink = addTable(tables.size());
+				tables.add(sink);
+			}
+			Set<String> sources = new TreeSet<>();
+			int window = Math.min(tables.size(), Math.max(READ_WINDOW, fanIn));
+			for (int j = 0; j < fanIn * 4 && sources.size() < Math.min(fanIn, window - 1); j++){
+				String source = tables.get(tables.size() - 1 - random.nextInt(window));
+				if (!source.equals(sink)){
+					sources.add(source);
+				}
+			}
+			if (sources.isEmpty()){
+				sources.add(tables.get(tables.get(0).equals(sink) ? 1 : 0));
+			}
+			String sinkPartition = "dt=" + DAY + "/src=" + writer(i);
+			Map<String, Set<String>> sourcePartitions = new HashMap<>();
+			for (String source : sources){
+				sourcePartitions.put(source, Collections.singleton("dt=" + DAY));
+			}
+			tasks.add(new HiveTask(name, sources, Collections.singleton(sink), sourcePartitions,
+					Collections.singletonMap(sink, Collections.singleton(sinkPartition)), lineage(sink, sources),
+					script(sink, writer(i), sources)));
+		}
+	}
+
+	/**
+	 * Column lineage as compile finds it for the script: each column from the same column of
+	 * the first table read, and every column from the partition keys and rows of all of them
+	 */
+	private static Map<String, Set<String>> lineage(String sink, Set<String> sources){
+		Map<String, Set<String>> lineage = new HashMap<>();
+		for (String column : COLUMNS){
+			Set<String> columnSources = new TreeSet<>();
+			for (String source : sources){
+				if (columnSources.isEmpty()){
+					columnSources.add(source + "." + column);
+				}
+				columnSources.add(source + ".*");
+				columnSources.add(source + ".dt");
+				columnSources.add(source + ".src");
+			}
+			lineage.put(sink + "." + column, columnSources);
+		}
+		return lineage;
+	}
+
+	private static String writer(int task){
+		return String.format("task%06d", task);
+	}
+
+	private String addTable(int index){
+		List<HCatColumn> columns = Arrays.asList(
+				new HCatColumn("string", "id", "Row key", false),
+				new HCatColumn("bigint", "amount", "Some amount", false),
+				new HCatColumn("string", "label", null, false),
+				new HCatColumn("double", "score", null, false),
+				new HCatColumn("string", "dt", "Day", true),
+				new HCatColumn("string", "src", "Task writing the rows", true));
+		String db = String.format("db%03d", index / TABLES_PER_DB);
+		String table = String.format("table%06d", index);
+		HCatResource resource = new HCatResource(db, table, "Synthetic table " + index,
+				"CREATE TABLE " + db + "." + table + " (\n"
+				+ "  id string COMMENT 'Row key',\n"
+				+ "  amount bigint COMMENT 'Some amount',\n"
+				+ "  label string,\n"
+				+ "  score double\n"
+				+ ")\n"
+				+ "COMMENT 'Synthetic table " + index + "'\n"
+				+ "PARTITIONED BY (dt string COMMENT 'Day', src string COMMENT 'Task writing the rows')\n"
+				+ ";\n", columns);
+		resources.put(resource.getUniqueIdentifier(), resource);
+		return resource.getUniqueIdentifier();
+	}
+
+	private static String script(String sink, String writer, Set<String> sources){
+		StringBuilder script = new StringBuilder();
+		script.append("INSERT OVERWRITE TABLE ").append(tableName(sink))
+				.append(" PARTITION (dt = '" + DAY + "', src = '" + writer + "')\n")
+				.append("SELECT t0.id, sum(t0.amount), max(t0.label), avg(t0.score)\n");
+		StringBuilder where = new StringBuilder();
+		int alias = 0;
+		for (String source : sources){
+			if (alias == 0){
+				script.append("FROM ").append(tableName(source)).append(" t0\n");
+				where.append("WHERE t0.dt = '" + DAY + "'");
+			} else {
+				script.append("JOIN ").append(tableName(source)).append(" t" + alias)
+						.append(" ON (t0.id = t" + alias + ".id)\n");
+				where.append(" AND t" + alias + ".dt = '" + DAY + "'");
+			}
+			alias++;
+		}
+		script.append(where).append("\nGROUP BY t0.id;\n");
+		return script.toString();
+	}
+
+	private static String tableName(String resource){
+		return resource.substring("hcat:".length());
+	}
+
+	/**
+	 * The scripts in order, not linked
+	 */
+	public List<Task> getTasks(){
+		return tasks;
+	}
+
+	public Map<String, Resource> getResources(){
+		return resources;
+	}
+
+	/**
+	 * The model as compile would write it, with sources held inline
+	 */
+	public BatchModel model(){
+		BatchModel model = new BatchModel();
+		model.getResources().putAll(resources);
+		model.setTasks(DependencyOptimizer.optimizeDeps(tasks));
+		return model;
+	}
+
+	/**
+	 * Writes every script under the dir, by task name
+	 */
+	public void writeScripts(File dir) throws IOException{
+		for (Task task : tasks){
+			FileUtils.writeStringToFile(new File(dir, task.getName()), task.getSource(), "UTF-8");
+		}
+	}
+}
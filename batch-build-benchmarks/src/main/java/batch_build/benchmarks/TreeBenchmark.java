@@ -0,0 +1,84 @@
+package batch_build.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import batch_build.common.model.BatchModel;
+import batch_build.common.model.resources.Resource;
+import batch_build.common.model.tasks.LinkedTask;
+import batch_build.mojo.ReportTrees;
+import batch_build.mojo.utils.TreeNode;
+
+/**
+ * Building and sorting {@link TreeNode}s, on their own and as the report navigation trees
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class TreeBenchmark {
+
+	@Param({"1000", "10000"})
+	private int taskCount;
+
+	private List<LinkedTask> tasks;
+	private Collection<Resource> resources;
+	private List<String[]> paths;
+
+	@Setup
+	public void setUp(){
+		BatchModel model = new SyntheticDag(taskCount, 2, 0.1, 1).model();
+		tasks = model.getTasks();
+		resources = model.getResources().values();
+		// Last task first so sorting has something to do
+		paths = new ArrayList<>();
+		for (int i = tasks.size() - 1; i >= 0; i--){
+			paths.add(tasks.get(i).getName().split("/"));
+		}
+	}
+
+	@Benchmark
+	public TreeNode<String> build(){
+		TreeNode<String> root = new TreeNode<String>(null, "root");
+		for (String[] path : paths){
+			TreeNode<String> node = root;
+			for (String component : path){
+				node = node.getOrCreateChild(component);
+			}
+		}
+		return root;
+	}
+
+	@Benchmark
+	public TreeNode<String> buildAndSort(){
+		TreeNode<String> root = build();
+		root.sortChildren(true);
+		return root;
+	}
+
+	@Benchmark
+	public TreeNode<String> taskTree(){
+		return ReportTrees.tasks(tasks);
+	}
+
+	@Benchmark
+	public TreeNode<String> tablesTree(){
+		return ReportTrees.tables(resources);
+	}
+}
@@ -1,38 +1,179 @@
 package batch_build.common.model;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import lombok.Getter;
 import lombok.Setter;
+import batch_build.common.model.resources.HCatResource;
 import batch_build.common.model.resources.Resource;
 import batch_build.common.model.tasks.LinkedTask;
+import batch_build.common.model.tasks.Task;
+import batch_build.common.utils.Interner;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.core.JsonGenerationException;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.ObjectReader;
 import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
 
 @Getter
 @Setter
 public class BatchModel {
 	private Map<String,Resource> resources = new HashMap<>();
 	private List<LinkedTask> tasks;
+	// Where any externalized sources are kept, set when the model is read
+	@JsonIgnore
+	private SourceStore sourceStore;
+	
+	public enum Format {
+		/** Pretty printed json */
+		JSON,
+		/** Jackson's binary json, much smaller and faster to read and write */
+		SMILE
+	}
+	
+	// Smile documents always start with this header
+	private static final byte[] SMILE_HEADER = {':', ')', '\n'};
+	
+	private static final ObjectWriter JSON_WRITER = new ObjectMapper().writer().withDefaultPrettyPrinter().forType(BatchModel.class);
+	private static final ObjectWriter SMILE_WRITER = new ObjectMapper(new SmileFactory()).writer().forType(BatchModel.class);
+	private static final ObjectReader JSON_READER = new ObjectMapper().reader().forType(BatchModel.class);
+	private static final ObjectReader SMILE_READER = new ObjectMapper(new SmileFactory()).reader().forType(BatchModel.class);
+	private static final ObjectReader JSON_READER_NO_SOURCES = withoutSources(new ObjectMapper());
+	private static final ObjectReader SMILE_READER_NO_SOURCES = withoutSources(new ObjectMapper(new SmileFactory()));
 	
 	public void writeModel(File modelFile) throws JsonGenerationException, JsonMappingException, IOException{
-		ObjectMapper om = new ObjectMapper();
-		ObjectWriter writer = om.writer().withDefaultPrettyPrinter().forType(BatchModel.class);
-		writer.writeValue(modelFile, this);
+		writeModel(modelFile, Format.JSON);
+	}
+	
+	public void writeModel(File modelFile, Format format) throws JsonGenerationException, JsonMappingException, IOException{
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(modelFile));
+		try {
+			(format == Format.SMILE ? SMILE_WRITER : JSON_WRITER).writeValue(out, this);
+		} finally {
+			out.close();
+		}
 	}
 	
+	/**
+	 * Reads a model written in either format
+	 */
 	public static BatchModel read(File modelFile) throws JsonProcessingException, IOException{
-		ObjectMapper om = new ObjectMapper();
-		ObjectReader reader = om.reader().forType(BatchModel.class);
-		return reader.readValue(modelFile);
+		return read(modelFile, true);
+	}
+	
+	/**
+	 * Reads a model written in either format
+	 * @param withSources false to skip the script and DDL text of every task and table,
+	 * which is most of the model, leaving their sources null
+	 */
+	public static BatchModel read(File modelFile, boolean withSources) throws JsonProcessingException, IOException{
+		InputStream in = new BufferedInputStream(new FileInputStream(modelFile));
+		try {
+			boolean smile = isSmile(in);
+			ObjectReader reader;
+			if (withSources){
+				reader = smile ? SMILE_READER : JSON_READER;
+			} else {
+				reader = smile ? SMILE_READER_NO_SOURCES : JSON_READER_NO_SOURCES;
+			}
+			BatchModel model = reader.readValue(in);
+			model.setSourceStore(SourceStore.forModel(modelFile));
+			model.intern();
+			return model;
+		} finally {
+			in.close();
+		}
+	}
+	
+	/**
+	 * The source of a task or table, whether held inline or in the source store
+	 */
+	public String getSource(SourceHolder holder) throws IOException{
+		if (holder.getSource() != null || holder.getSourceHash() == null){
+			return holder.getSource();
+		}
+		if (sourceStore == null){
+			throw new IllegalStateException("No source store to read " + holder + " from");
+		}
+		return sourceStore.get(holder.getSourceHash());
 	}
+	
+	/**
+	 * Moves every task and table source into the store and drops any blobs no longer used
+	 */
+	public void externalizeSources(SourceStore store) throws IOException{
+		Set<String> hashes = new HashSet<>();
+		for (Resource resource : resources.values()){
+			if (resource instanceof HCatResource){
+				HCatResource table = (HCatResource) resource;
+				table.externalizeSource(store);
+				hashes.add(table.getSourceHash());
+			}
+		}
+		for (LinkedTask task : tasks){
+			task.getTask().externalizeSource(store);
+			hashes.add(task.getTask().getSourceHash());
+		}
+		// Tables without any DDL
+		hashes.remove(null);
+		store.retainOnly(hashes);
+		sourceStore = store;
+	}
+	
+	/**
+	 * Makes the tasks share one instance of each resource id and column name, the parser gives
+	 * every task its own
+	 */
+	public void intern(){
+		Interner interner = new Interner();
+		for (String resourceId : resources.keySet()){
+			interner.intern(resourceId);
+		}
+		if (tasks != null){
+			for (LinkedTask task : tasks){
+				task.getTask().intern(interner);
+			}
+		}
+	}
+	
+	private static boolean isSmile(InputStream in) throws IOException{
+		in.mark(SMILE_HEADER.length);
+		try {
+			for (byte b : SMILE_HEADER){
+				if (in.read() != b){
+					return false;
+				}
+			}
+			return true;
+		} finally {
+			in.reset();
+		}
+	}
+	
+	private static ObjectReader withoutSources(ObjectMapper mapper){
+		mapper.addMixIn(Task.class, IgnoreSource.class);
+		mapper.addMixIn(HCatResource.class, IgnoreSource.class);
+		return mapper.reader().forType(BatchModel.class);
+	}
+	
+	// The parser skips ignored values without decoding them
+	@JsonIgnoreProperties("source")
+	private static abstract class IgnoreSource {}
 }
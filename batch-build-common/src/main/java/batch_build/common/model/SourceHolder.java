@@ -0,0 +1,15 @@
+package batch_build.common.model;
+
+/**
+ * Something in the model with script or DDL text, held either inline or as the
+ * hash of a blob in the model's {@link SourceStore}
+ */
+public interface SourceHolder {
+
+	/**
+	 * The inline source, null when it has been moved to the source store
+	 */
+	String getSource();
+
+	String getSourceHash();
+}
@@ -0,0 +1,108 @@
+package batch_build.common.model;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Set;
+
+import batch_build.common.utils.ContentHasher;
+
+/**
+ * Content addressed store for script and DDL sources, kept in a sources dir next
+ * to the model file. Each distinct source is written once, under its hash, so
+ * tables sharing a DDL file or unchanged scripts cost nothing extra.
+ */
+public class SourceStore {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final File dir;
+
+	public SourceStore(File dir) {
+		this.dir = dir;
+	}
+
+	/**
+	 * The store belonging to a model file
+	 */
+	public static SourceStore forModel(File modelFile){
+		return new SourceStore(new File(modelFile.getAbsoluteFile().getParentFile(), "sources"));
+	}
+
+	/**
+	 * Stores the source if it is not already present
+	 * @return the hash to get it back with
+	 */
+	public String put(String source) throws IOException{
+		String hash = ContentHasher.sha1(source);
+		File blob = blobFile(hash);
+		if (!blob.isFile()){
+			blob.getParentFile().mkdirs();
+			// Written to a temp file first so a blob is never seen half written
+			File tmp = File.createTempFile(hash, ".tmp", blob.getParentFile());
+			OutputStream out = new FileOutputStream(tmp);
+			try {
+				out.write(source.getBytes(UTF8));
+			} finally {
+				out.close();
+			}
+			if (!tmp.renameTo(blob) && !blob.isFile()){
+				tmp.delete();
+				throw new IOException("Could not write source blob " + blob);
+			}
+			tmp.delete();
+		}
+		return hash;
+	}
+
+	public String get(String hash) throws IOException{
+		File blob = blobFile(hash);
+		InputStream in = new FileInputStream(blob);
+		try {
+			byte[] bytes = new byte[(int) blob.length()];
+			int read = 0;
+			while (read < bytes.length){
+				int count = in.read(bytes, read, bytes.length - read);
+				if (count < 0){
+					throw new IOException("Source blob " + blob + " is truncated");
+				}
+				read += count;
+			}
+			return new String(bytes, UTF8);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Deletes every blob not in the given hashes
+	 */
+	public void retainOnly(Set<String> hashes){
+		File[] prefixDirs = dir.listFiles();
+		if (prefixDirs == null){
+			return;
+		}
+		for (File prefixDir : prefixDirs){
+			File[] blobs = prefixDir.listFiles();
+			if (blobs == null){
+				continue;
+			}
+			for (File blob : blobs){
+				if (!hashes.contains(prefixDir.getName() + blob.getName())){
+					blob.delete();
+				}
+			}
+			// Only removed once empty
+			prefixDir.delete();
+		}
+	}
+
+	private File blobFile(String hash){
+		// Split on the first two characters to keep directories small
+		return new File(new File(dir, hash.substring(0, 2)), hash.substring(2));
+	}
+}
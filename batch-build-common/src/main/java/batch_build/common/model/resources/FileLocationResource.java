@@ -1,15 +1,22 @@
 package batch_build.common.model.resources;
 
+import lombok.Getter;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+@Getter
 public class FileLocationResource extends Resource {
 	
-	public final String path;
+	private String path;
+	
+	private FileLocationResource(){}
 	
 	public FileLocationResource(String path){
 		this.path = path;
 	}
 
 	@Override
+	@JsonIgnore
 	public String getUniqueIdentifier() {
 		return "file:" + path;
 	}
@@ -1,19 +1,26 @@
 package batch_build.common.model.resources;
 
+import java.io.IOException;
 import java.util.Collections;
 import java.util.List;
 
 import lombok.Getter;
+import batch_build.common.model.SourceHolder;
+import batch_build.common.model.SourceStore;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
 
 @Getter
-public class HCatResource extends Resource{
+public class HCatResource extends Resource implements SourceHolder{
 	
 	private String dbName;
 	private String tableName;
 	private String description;
 	private String source;
+	@JsonInclude(Include.NON_NULL)
+	private String sourceHash;
 	private List<HCatColumn> columns;
 	
 	private HCatResource(){};
@@ -27,6 +34,16 @@ public class HCatResource extends Resource{
 		this.columns = Collections.unmodifiableList(columns);
 	}
 
+	/**
+	 * Moves the DDL source into the store, leaving only its hash on the table
+	 */
+	public void externalizeSource(SourceStore store) throws IOException{
+		if (source != null){
+			sourceHash = store.put(source);
+			source = null;
+		}
+	}
+
 	@Override
 	@JsonIgnore
 	public String getUniqueIdentifier() {
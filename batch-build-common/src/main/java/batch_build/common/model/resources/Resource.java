@@ -28,7 +28,7 @@ public abstract class Resource implements Comparable<Resource>{
 			return false;
 		if (getClass() != obj.getClass())
 			return false;
-		HCatResource other = (HCatResource) obj;
+		Resource other = (Resource) obj;
 		return getUniqueIdentifier().equals(other.getUniqueIdentifier());
 	}
 }
@@ -0,0 +1,245 @@
+package batch_build.common.model.tasks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import batch_build.common.model.BatchModel;
+import batch_build.common.utils.Interner;
+
+/**
+ * The task graph held in a few int arrays rather than as linked objects. Tasks are numbered
+ * in model order and resources as they are first met. The resources each task reads and
+ * writes, and its parents and children, are runs of those numbers in one shared array each,
+ * task i's run going from offsets[i] to offsets[i + 1] (compressed sparse rows). Every
+ * resource id is held once however many tasks use it, and the tasks are interned on the way
+ * in. Converts to and from the linked tasks of a {@link BatchModel}, sharing the tasks.
+ */
+public class CompactGraph {
+
+	private final Task[] tasks;
+	private final TaskTiming[] timings;
+	private final String[] resources;
+	private final Map<String, Integer> resourceNumbers = new HashMap<>();
+	private final int[] sourceOffsets;
+	private final int[] sources;
+	private final int[] sinkOffsets;
+	private final int[] sinks;
+	private final int[] parentOffsets;
+	private final int[] parents;
+	private final int[] childOffsets;
+	private final int[] children;
+
+	/**
+	 * The graph of the model's tasks, numbering the model's resources first
+	 */
+	public static CompactGraph of(BatchModel model){
+		return new CompactGraph(model.getTasks(), model.getResources().keySet());
+	}
+
+	/**
+	 * @param linkedTasks in dependency order, as held in the model
+	 */
+	public static CompactGraph of(List<LinkedTask> linkedTasks){
+		return new CompactGraph(linkedTasks, Collections.<String>emptySet());
+	}
+
+	private CompactGraph(List<LinkedTask> linkedTasks, Collection<String> knownResources) {
+		int n = linkedTasks.size();
+		tasks = new Task[n];
+		timings = new TaskTiming[n];
+		Interner interner = new Interner();
+		List<String> resourceList = new ArrayList<>();
+		for (String resource : knownResources){
+			number(interner.intern(resource), resourceList);
+		}
+		Map<LinkedTask, Integer> numbers = new IdentityHashMap<>();
+		int sourceCount = 0;
+		int sinkCount = 0;
+		int parentCount = 0;
+		for (int i = 0; i < n; i++){
+			LinkedTask linkedTask = linkedTasks.get(i);
+			numbers.put(linkedTask, i);
+			tasks[i] = linkedTask.getTask();
+			tasks[i].intern(interner);
+			timings[i] = linkedTask.getTiming();
+			sourceCount += tasks[i].getSourceResources().size();
+			sinkCount += tasks[i].getSinkResources().size();
+			parentCount += linkedTask.getParents().size();
+		}
+
+		sourceOffsets = new int[n + 1];
+		sources = new int[sourceCount];
+		sinkOffsets = new int[n + 1];
+		sinks = new int[sinkCount];
+		parentOffsets = new int[n + 1];
+		parents = new int[parentCount];
+		int[] childCounts = new int[n];
+		for (int i = 0; i < n; i++){
+			sourceOffsets[i + 1] = fill(sources, sourceOffsets[i], tasks[i].getSourceResources(), resourceList);
+			sinkOffsets[i + 1] = fill(sinks, sinkOffsets[i], tasks[i].getSinkResources(), resourceList);
+			int end = parentOffsets[i];
+			for (LinkedTask parent : linkedTasks.get(i).getParents()){
+				Integer number = numbers.get(parent);
+				if (number == null){
+					throw new IllegalArgumentException(parent.getName() + ", a parent of "
+							+ tasks[i].getName() + ", is not one of the tasks");
+				}
+				parents[end++] = number;
+				childCounts[number]++;
+			}
+			// Parents are a hash set, sorted so the graph does not depend on their order
+			Arrays.sort(parents, parentOffsets[i], end);
+			parentOffsets[i + 1] = end;
+		}
+		resources = resourceList.toArray(new String[resourceList.size()]);
+
+		// Children are the parents turned around, in task order as the tasks are gone through in order
+		childOffsets = new int[n + 1];
+		for (int i = 0; i < n; i++){
+			childOffsets[i + 1] = childOffsets[i] + childCounts[i];
+		}
+		children = new int[parentCount];
+		int[] next = Arrays.copyOf(childOffsets, n);
+		for (int i = 0; i < n; i++){
+			for (int p = parentOffsets[i]; p < parentOffsets[i + 1]; p++){
+				children[next[parents[p]]++] = i;
+			}
+		}
+	}
+
+	private int number(String resource, List<String> resourceList){
+		Integer number = resourceNumbers.get(resource);
+		if (number == null){
+			number = resourceList.size();
+			resourceNumbers.put(resource, number);
+			resourceList.add(resource);
+		}
+		return number;
+	}
+
+	private int fill(int[] numbers, int start, Collection<String> resourceIds, List<String> resourceList){
+		int end = start;
+		for (String resource : resourceIds){
+			numbers[end++] = number(resource, resourceList);
+		}
+		Arrays.sort(numbers, start, end);
+		return end;
+	}
+
+	/**
+	 * Links the tasks again, in the same order and with the same timings
+	 */
+	public List<LinkedTask> toLinkedTasks(){
+		List<LinkedTask> linkedTasks = new ArrayList<>(tasks.length);
+		for (int i = 0; i < tasks.length; i++){
+			LinkedTask linkedTask = new LinkedTask(tasks[i]);
+			linkedTask.setTiming(timings[i]);
+			linkedTasks.add(linkedTask);
+		}
+		for (int i = 0; i < tasks.length; i++){
+			for (int p = parentOffsets[i]; p < parentOffsets[i + 1]; p++){
+				linkedTasks.get(i).parents.add(linkedTasks.get(parents[p]));
+			}
+		}
+		return linkedTasks;
+	}
+
+	public int getTaskCount(){
+		return tasks.length;
+	}
+
+	public int getResourceCount(){
+		return resources.length;
+	}
+
+	public Task task(int task){
+		return tasks[task];
+	}
+
+	public String name(int task){
+		return tasks[task].getName();
+	}
+
+	/**
+	 * Null unless runtimes were recorded
+	 */
+	public TaskTiming timing(int task){
+		return timings[task];
+	}
+
+	public String resource(int resource){
+		return resources[resource];
+	}
+
+	/**
+	 * The number of the resource, -1 if no task uses it and it was not in the model
+	 */
+	public int resourceNumber(String resourceId){
+		Integer number = resourceNumbers.get(resourceId);
+		return number != null ? number : -1;
+	}
+
+	/**
+	 * Resources the task reads, in increasing order
+	 */
+	public int[] sources(int task){
+		return Arrays.copyOfRange(sources, sourceOffsets[task], sourceOffsets[task + 1]);
+	}
+
+	/**
+	 * Resources the task writes, in increasing order
+	 */
+	public int[] sinks(int task){
+		return Arrays.copyOfRange(sinks, sinkOffsets[task], sinkOffsets[task + 1]);
+	}
+
+	/**
+	 * Tasks the task waits for, in increasing order
+	 */
+	public int[] parents(int task){
+		return Arrays.copyOfRange(parents, parentOffsets[task], parentOffsets[task + 1]);
+	}
+
+	/**
+	 * Tasks waiting for the task, in increasing order
+	 */
+	public int[] children(int task){
+		return Arrays.copyOfRange(children, childOffsets[task], childOffsets[task + 1]);
+	}
+
+	/**
+	 * True if the task is the other one or comes after it through any chain of parents,
+	 * visiting every task above it at most once
+	 */
+	public boolean isDependentOn(int task, int other){
+		if (task == other){
+			return true;
+		}
+		BitSet seen = new BitSet(tasks.length);
+		int[] toVisit = new int[tasks.length];
+		int size = 0;
+		toVisit[size++] = task;
+		while (size > 0){
+			int current = toVisit[--size];
+			for (int p = parentOffsets[current]; p < parentOffsets[current + 1]; p++){
+				int parent = parents[p];
+				if (parent == other){
+					return true;
+				}
+				// In model order parents come first, so nothing before the other task leads to it
+				if (parent > other && !seen.get(parent)){
+					seen.set(parent);
+					toVisit[size++] = parent;
+				}
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,79 @@
+package batch_build.common.model.tasks;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Critical path analysis of the task graph. Tasks without a recorded runtime are
+ * assumed to take the average of the recorded ones.
+ */
+public class CriticalPath {
+
+	// Float slop when deciding if a task has any slack
+	private static final double EPSILON = 1e-6;
+
+	private CriticalPath(){}
+
+	/**
+	 * Sets the {@link TaskTiming} of every task
+	 * @param tasks in dependency order, as held in the model
+	 * @param durations recorded runtime in seconds by task name
+	 * @return the length of the critical path, i.e. the shortest possible run of the whole flow
+	 */
+	public static double analyze(List<LinkedTask> tasks, Map<String, Double> durations){
+		double estimate = 0;
+		if (!durations.isEmpty()){
+			for (Double duration : durations.values()){
+				estimate += duration;
+			}
+			estimate /= durations.size();
+		}
+
+		int n = tasks.size();
+		Map<LinkedTask, Integer> indexes = new IdentityHashMap<>();
+		List<List<Integer>> children = new ArrayList<>(n);
+		double[] duration = new double[n];
+		for (int i = 0; i < n; i++){
+			LinkedTask task = tasks.get(i);
+			indexes.put(task, i);
+			children.add(new ArrayList<Integer>());
+			Double recorded = durations.get(task.getName());
+			duration[i] = recorded != null ? recorded : estimate;
+		}
+
+		// Forward pass, parents always come first
+		double[] earliestStart = new double[n];
+		double makespan = 0;
+		for (int i = 0; i < n; i++){
+			for (LinkedTask parent : tasks.get(i).getParents()){
+				int p = indexes.get(parent);
+				children.get(p).add(i);
+				earliestStart[i] = Math.max(earliestStart[i], earliestStart[p] + duration[p]);
+			}
+			makespan = Math.max(makespan, earliestStart[i] + duration[i]);
+		}
+
+		// Backward pass
+		double[] latestStart = new double[n];
+		double[] remaining = new double[n];
+		for (int i = n - 1; i >= 0; i--){
+			double latestFinish = makespan;
+			double longestAfter = 0;
+			for (int c : children.get(i)){
+				latestFinish = Math.min(latestFinish, latestStart[c]);
+				longestAfter = Math.max(longestAfter, remaining[c]);
+			}
+			latestStart[i] = latestFinish - duration[i];
+			remaining[i] = duration[i] + longestAfter;
+		}
+
+		for (int i = 0; i < n; i++){
+			LinkedTask task = tasks.get(i);
+			task.setTiming(new TaskTiming(duration[i], durations.containsKey(task.getName()),
+					earliestStart[i], latestStart[i], remaining[i], latestStart[i] - earliestStart[i] < EPSILON));
+		}
+		return makespan;
+	}
+}
@@ -0,0 +1,213 @@
+package batch_build.common.model.tasks;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import lombok.Getter;
+
+/**
+ * The shape of the task graph, counted in tasks as if every task took as long: how deep and
+ * wide it is, its longest chains, and the resources whose ordering makes it deepest. A task's
+ * level is the longest chain of tasks before it, so the tasks of a level could all run at once.
+ */
+@Getter
+public class DagAnalysis {
+
+	private static final int LONGEST_CHAINS = 5;
+	// Each one means linking the whole graph again
+	private static final int HOT_RESOURCE_CANDIDATES = 20;
+
+	private int tasks;
+	private int edges;
+	private int depth;
+	// Tasks per level, from the tasks without parents down
+	private List<Integer> widths;
+	// The widest level, the most tasks that can run at once
+	private int maxParallelism;
+	// Tasks per level on average, how much faster than one task at a time the flow can run
+	private double averageParallelism;
+	private List<List<String>> longestChains;
+	private List<HotResource> hotResources;
+
+	private DagAnalysis(){}
+
+	/**
+	 * A resource with several writers and how the graph would look if nothing had to wait for it
+	 */
+	@Getter
+	public static class HotResource {
+		private String resource;
+		private int writers;
+		private int readers;
+		private int depthWithout;
+		private int maxParallelismWithout;
+
+		private HotResource(){}
+
+		HotResource(String resource, int writers, int readers, int depthWithout, int maxParallelismWithout) {
+			this.resource = resource;
+			this.writers = writers;
+			this.readers = readers;
+			this.depthWithout = depthWithout;
+			this.maxParallelismWithout = maxParallelismWithout;
+		}
+	}
+
+	/**
+	 * @param linkedTasks in dependency order, as held in the model
+	 */
+	public static DagAnalysis analyze(List<LinkedTask> linkedTasks){
+		DagAnalysis analysis = new DagAnalysis();
+		int[] levels = levels(linkedTasks);
+		analysis.tasks = linkedTasks.size();
+		analysis.widths = widths(levels);
+		analysis.depth = analysis.widths.size();
+		analysis.maxParallelism = analysis.widths.isEmpty() ? 0 : Collections.max(analysis.widths);
+		analysis.averageParallelism = analysis.depth == 0 ? 0
+				: Math.round(100.0 * analysis.tasks / analysis.depth) / 100.0;
+		for (LinkedTask task : linkedTasks){
+			analysis.edges += task.getParents().size();
+		}
+		analysis.longestChains = longestChains(linkedTasks, levels);
+		analysis.hotResources = hotResources(linkedTasks);
+		return analysis;
+	}
+
+	private static int[] levels(List<LinkedTask> linkedTasks){
+		Map<LinkedTask, Integer> indexes = new IdentityHashMap<>();
+		int[] levels = new int[linkedTasks.size()];
+		for (int i = 0; i < linkedTasks.size(); i++){
+			LinkedTask task = linkedTasks.get(i);
+			indexes.put(task, i);
+			for (LinkedTask parent : task.getParents()){
+				levels[i] = Math.max(levels[i], levels[indexes.get(parent)] + 1);
+			}
+		}
+		return levels;
+	}
+
+	private static List<Integer> widths(int[] levels){
+		List<Integer> widths = new ArrayList<>();
+		for (int level : levels){
+			while (widths.size() <= level){
+				widths.add(0);
+			}
+			widths.set(level, widths.get(level) + 1);
+		}
+		return widths;
+	}
+
+	/**
+	 * The longest chains ending in tasks nothing depends on, each followed back through a
+	 * parent one level up
+	 */
+	private static List<List<String>> longestChains(List<LinkedTask> linkedTasks, int[] levels){
+		Map<LinkedTask, Integer> indexes = new IdentityHashMap<>();
+		boolean[] hasChildren = new boolean[linkedTasks.size()];
+		for (int i = 0; i < linkedTasks.size(); i++){
+			indexes.put(linkedTasks.get(i), i);
+			for (LinkedTask parent : linkedTasks.get(i).getParents()){
+				hasChildren[indexes.get(parent)] = true;
+			}
+		}
+		final int[] taskLevels = levels;
+		List<Integer> ends = new ArrayList<>();
+		for (int i = 0; i < linkedTasks.size(); i++){
+			if (!hasChildren[i]){
+				ends.add(i);
+			}
+		}
+		// Deepest first, then in model order
+		Collections.sort(ends, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return taskLevels[a] != taskLevels[b] ? taskLevels[b] - taskLevels[a] : a - b;
+			}
+		});
+
+		List<List<String>> chains = new ArrayList<>();
+		for (int end : ends.subList(0, Math.min(LONGEST_CHAINS, ends.size()))){
+			List<String> chain = new ArrayList<>();
+			LinkedTask task = linkedTasks.get(end);
+			while (task != null){
+				chain.add(task.getName());
+				LinkedTask next = null;
+				for (LinkedTask parent : task.getParents()){
+					int parentIndex = indexes.get(parent);
+					// The earliest parent in the model so the chain does not depend on set order
+					if (levels[parentIndex] == levels[indexes.get(task)] - 1
+							&& (next == null || parentIndex < indexes.get(next))){
+						next = parent;
+					}
+				}
+				task = next;
+			}
+			Collections.reverse(chain);
+			chains.add(chain);
+		}
+		return chains;
+	}
+
+	/**
+	 * The resources with the most writers, each with the graph linked again as if no task used
+	 * it, most levels saved first
+	 */
+	private static List<HotResource> hotResources(List<LinkedTask> linkedTasks){
+		final Map<String, int[]> usage = new LinkedHashMap<>();
+		List<Task> tasks = new ArrayList<>();
+		for (LinkedTask linkedTask : linkedTasks){
+			Task task = linkedTask.getTask();
+			tasks.add(task);
+			for (String resource : task.getSinkResources()){
+				usage(usage, resource)[0]++;
+			}
+			for (String resource : task.getSourceResources()){
+				usage(usage, resource)[1]++;
+			}
+		}
+		List<String> candidates = new ArrayList<>();
+		for (Map.Entry<String, int[]> resource : usage.entrySet()){
+			if (resource.getValue()[0] > 1){
+				candidates.add(resource.getKey());
+			}
+		}
+		Collections.sort(candidates, new Comparator<String>() {
+			@Override
+			public int compare(String a, String b) {
+				int writers = usage.get(b)[0] - usage.get(a)[0];
+				return writers != 0 ? writers : a.compareTo(b);
+			}
+		});
+
+		List<HotResource> hot = new ArrayList<>();
+		for (String resource : candidates.subList(0, Math.min(HOT_RESOURCE_CANDIDATES, candidates.size()))){
+			// Redundant deps change neither the levels nor the widths, so no need to reduce
+			List<Integer> widths = widths(levels(DependencyOptimizer.link(tasks, resource)));
+			hot.add(new HotResource(resource, usage.get(resource)[0], usage.get(resource)[1],
+					widths.size(), widths.isEmpty() ? 0 : Collections.max(widths)));
+		}
+		Collections.sort(hot, new Comparator<HotResource>() {
+			@Override
+			public int compare(HotResource a, HotResource b) {
+				return a.depthWithout != b.depthWithout ? a.depthWithout - b.depthWithout
+						: b.maxParallelismWithout - a.maxParallelismWithout;
+			}
+		});
+		return hot;
+	}
+
+	// Writers and readers of the resource
+	private static int[] usage(Map<String, int[]> usage, String resource){
+		int[] counts = usage.get(resource);
+		if (counts == null){
+			counts = new int[2];
+			usage.put(resource, counts);
+		}
+		return counts;
+	}
+}
@@ -0,0 +1,42 @@
+package batch_build.common.model.tasks;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import lombok.Getter;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+/**
+ * What changed in the task graph between two builds, see
+ * {@link DependencyOptimizer#optimizeDeps(List, List, DependencyDiff)}
+ */
+@Getter
+public class DependencyDiff {
+	private final List<String> addedTasks = new ArrayList<>();
+	private final List<String> removedTasks = new ArrayList<>();
+	// Tasks whose parents were worked out again rather than carried over
+	private final List<String> relinkedTasks = new ArrayList<>();
+	private final List<Edge> addedEdges = new ArrayList<>();
+	private final List<Edge> removedEdges = new ArrayList<>();
+
+	@Getter
+	public static class Edge {
+		private final String parent;
+		private final String child;
+
+		Edge(String parent, String child) {
+			this.parent = parent;
+			this.child = child;
+		}
+
+		public String toString(){
+			return parent + " -> " + child;
+		}
+	}
+
+	@JsonIgnore
+	public boolean isEmpty(){
+		return addedTasks.isEmpty() && removedTasks.isEmpty() && addedEdges.isEmpty() && removedEdges.isEmpty();
+	}
+}
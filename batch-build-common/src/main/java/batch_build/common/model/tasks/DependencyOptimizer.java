@@ -0,0 +1,479 @@
+package batch_build.common.model.tasks;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+public class DependencyOptimizer {
+
+	private DependencyOptimizer(){}
+
+	/**
+	 * Work out the best dependencies between the tasks.
+	 * tasks that write resources should depend on anything before them that read or write that resource
+	 * tasks that read resources should depend on tasks before them that write into the resource
+	 * where the partitions read and written are known, only tasks on overlapping partitions depend on each other
+	 */
+	public static List<LinkedTask> optimizeDeps(List<? extends Task> tasks){
+		List<LinkedTask> linkedTasks = link(tasks, null);
+		reduceDeps(linkedTasks);
+		return linkedTasks;
+	}
+
+	/**
+	 * The first pass of {@link #optimizeDeps(List)}, redundant deps are left in
+	 * @param ignored a resource to link as if no task used it, or null
+	 */
+	static List<LinkedTask> link(List<? extends Task> tasks, String ignored){
+		List<LinkedTask> linkedTasks = new ArrayList<>();
+		// Tracking of resource -> reads and writes
+		Map<String, Upstream> upstream = new HashMap<>();
+
+		// First pass at calculating deps
+		for (Task task : tasks){
+			LinkedTask lTask = new LinkedTask(task);
+			link(lTask, upstream);
+			// Setup for next task
+			record(lTask, upstream, null);
+			if (ignored != null){
+				upstream.remove(ignored);
+			}
+			linkedTasks.add(lTask);
+		}
+		return linkedTasks;
+	}
+
+	/**
+	 * Gives the same result as {@link #optimizeDeps(List)} but carries the parents over from a
+	 * previous build wherever they cannot have changed. Only tasks reading or writing a resource
+	 * of an added, removed or changed task are linked again, along with the tasks below them
+	 * whose redundant deps may have changed, and the upstream reads and writes are only tracked
+	 * for the resources of those tasks. Falls back to linking everything when the surviving tasks
+	 * are no longer in the same order.
+	 * @param previous the linked tasks of the previous build, e.g. from the last model
+	 * @param diff filled in with the changes from the previous build
+	 */
+	public static List<LinkedTask> optimizeDeps(List<? extends Task> tasks, List<LinkedTask> previous, DependencyDiff diff){
+		Map<String, LinkedTask> previousByName = new HashMap<>();
+		for (LinkedTask task : previous){
+			previousByName.put(task.getName(), task);
+		}
+		Map<String, Task> tasksByName = new HashMap<>();
+		for (Task task : tasks){
+			tasksByName.put(task.getName(), task);
+		}
+
+		// Resources whose readers and writers may have changed
+		Set<String> changedResources = new HashSet<>();
+		Set<String> relink = new HashSet<>();
+		List<String> kept = new ArrayList<>();
+		for (Task task : tasks){
+			LinkedTask before = previousByName.get(task.getName());
+			if (before == null){
+				diff.getAddedTasks().add(task.getName());
+			} else {
+				kept.add(task.getName());
+				if (sameResources(task, before.getTask())){
+					continue;
+				}
+				addResources(changedResources, before.getTask());
+			}
+			addResources(changedResources, task);
+			relink.add(task.getName());
+		}
+		List<String> keptBefore = new ArrayList<>();
+		for (LinkedTask task : previous){
+			if (tasksByName.containsKey(task.getName())){
+				keptBefore.add(task.getName());
+			} else {
+				diff.getRemovedTasks().add(task.getName());
+				addResources(changedResources, task.getTask());
+			}
+		}
+		if (!kept.equals(keptBefore)){
+			return relinkAll(tasks, previous, diff);
+		}
+
+		// Anything below a relinked task can have different redundant deps
+		Map<String, List<String>> children = new HashMap<>();
+		for (LinkedTask task : previous){
+			for (LinkedTask parent : task.parents){
+				List<String> parentChildren = children.get(parent.getName());
+				if (parentChildren == null){
+					parentChildren = new ArrayList<>();
+					children.put(parent.getName(), parentChildren);
+				}
+				parentChildren.add(task.getName());
+			}
+		}
+		List<String> toVisit = new ArrayList<>();
+		for (Task task : tasks){
+			if (relink.contains(task.getName()) || touches(task, changedResources)){
+				relink.add(task.getName());
+				toVisit.add(task.getName());
+			}
+		}
+		while (!toVisit.isEmpty()){
+			List<String> below = children.get(toVisit.remove(toVisit.size() - 1));
+			if (below != null){
+				for (String child : below){
+					if (tasksByName.containsKey(child) && relink.add(child)){
+						toVisit.add(child);
+					}
+				}
+			}
+		}
+
+		// Same as the first pass of a full link, just for the resources of the relinked tasks
+		Set<String> tracked = new HashSet<>();
+		for (Task task : tasks){
+			if (relink.contains(task.getName())){
+				addResources(tracked, task);
+			}
+		}
+		List<LinkedTask> linkedTasks = new ArrayList<>();
+		Map<String, LinkedTask> linkedByName = new HashMap<>();
+		Map<String, Upstream> upstream = new HashMap<>();
+		for (Task task : tasks){
+			LinkedTask lTask = new LinkedTask(task);
+			if (relink.contains(task.getName())){
+				link(lTask, upstream);
+			} else {
+				for (LinkedTask parent : previousByName.get(task.getName()).parents){
+					LinkedTask linkedParent = linkedByName.get(parent.getName());
+					if (linkedParent == null){
+						// Not a previous build of these tasks after all
+						return relinkAll(tasks, previous, diff);
+					}
+					lTask.parents.add(linkedParent);
+				}
+			}
+			record(lTask, upstream, tracked);
+			linkedTasks.add(lTask);
+			linkedByName.put(task.getName(), lTask);
+		}
+
+		reduceDeps(linkedTasks, relink);
+
+		for (LinkedTask task : linkedTasks){
+			if (relink.contains(task.getName())){
+				diff.getRelinkedTasks().add(task.getName());
+				LinkedTask before = previousByName.get(task.getName());
+				diffEdges(before != null ? before.parents : new HashSet<LinkedTask>(), task.parents, task.getName(), diff);
+			}
+		}
+		for (LinkedTask task : previous){
+			if (!tasksByName.containsKey(task.getName())){
+				diffEdges(task.parents, new HashSet<LinkedTask>(), task.getName(), diff);
+			}
+		}
+		return linkedTasks;
+	}
+
+	private static List<LinkedTask> relinkAll(List<? extends Task> tasks, List<LinkedTask> previous, DependencyDiff diff){
+		List<LinkedTask> linkedTasks = optimizeDeps(tasks);
+		Map<String, LinkedTask> previousByName = new HashMap<>();
+		for (LinkedTask task : previous){
+			previousByName.put(task.getName(), task);
+		}
+		diff.getAddedTasks().clear();
+		diff.getRemovedTasks().clear();
+		Set<String> names = new HashSet<>();
+		for (LinkedTask task : linkedTasks){
+			names.add(task.getName());
+			LinkedTask before = previousByName.get(task.getName());
+			if (before == null){
+				diff.getAddedTasks().add(task.getName());
+			}
+			diff.getRelinkedTasks().add(task.getName());
+			diffEdges(before != null ? before.parents : new HashSet<LinkedTask>(), task.parents, task.getName(), diff);
+		}
+		for (LinkedTask task : previous){
+			if (!names.contains(task.getName())){
+				diff.getRemovedTasks().add(task.getName());
+				diffEdges(task.parents, new HashSet<LinkedTask>(), task.getName(), diff);
+			}
+		}
+		return linkedTasks;
+	}
+
+	private static void diffEdges(Set<LinkedTask> before, Set<LinkedTask> after, String child, DependencyDiff diff){
+		Set<String> beforeNames = new TreeSet<>();
+		for (LinkedTask parent : before){
+			beforeNames.add(parent.getName());
+		}
+		Set<String> afterNames = new TreeSet<>();
+		for (LinkedTask parent : after){
+			afterNames.add(parent.getName());
+		}
+		for (String parent : afterNames){
+			if (!beforeNames.contains(parent)){
+				diff.getAddedEdges().add(new DependencyDiff.Edge(parent, child));
+			}
+		}
+		for (String parent : beforeNames){
+			if (!afterNames.contains(parent)){
+				diff.getRemovedEdges().add(new DependencyDiff.Edge(parent, child));
+			}
+		}
+	}
+
+	private static void addResources(Set<String> resources, Task task){
+		resources.addAll(task.getSourceResources());
+		resources.addAll(task.getSinkResources());
+	}
+
+	private static boolean touches(Task task, Set<String> resources){
+		for (String resource : task.getSourceResources()){
+			if (resources.contains(resource)){
+				return true;
+			}
+		}
+		for (String resource : task.getSinkResources()){
+			if (resources.contains(resource)){
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Removes redundant deps, i.e. parents that can already be reached through another parent.
+	 * The tasks must be in dependency order (parents before children), which lets the ancestors
+	 * of every task be built up in a single pass as bitsets over the task indexes.
+	 */
+	public static void reduceDeps(List<LinkedTask> linkedTasks){
+		reduceDeps(linkedTasks, null);
+	}
+
+	/**
+	 * @param names the tasks to reduce, the rest must already be reduced. Null for all of them
+	 */
+	private static void reduceDeps(List<LinkedTask> linkedTasks, Set<String> names){
+		Map<LinkedTask, Integer> indexes = new IdentityHashMap<>();
+		for (int i = 0; i < linkedTasks.size(); i++){
+			indexes.put(linkedTasks.get(i), i);
+		}
+		// Only the ancestors of the tasks being reduced are needed, with parents before
+		// children one backwards pass finds them
+		boolean[] needed = new boolean[linkedTasks.size()];
+		for (int i = linkedTasks.size() - 1; i >= 0; i--){
+			LinkedTask task = linkedTasks.get(i);
+			needed[i] |= names == null || names.contains(task.getName());
+			if (!needed[i]){
+				continue;
+			}
+			for (LinkedTask parent : task.parents){
+				Integer parentIndex = indexes.get(parent);
+				if (parentIndex == null || parentIndex >= i){
+					throw new IllegalArgumentException("Task " + task + " depends on " + parent + " which is not before it");
+				}
+				needed[parentIndex] = true;
+			}
+		}
+
+		BitSet[] ancestors = new BitSet[linkedTasks.size()];
+		for (int i = 0; i < linkedTasks.size(); i++){
+			if (!needed[i]){
+				continue;
+			}
+			LinkedTask task = linkedTasks.get(i);
+			// Everything reachable through the parents, not counting the parents themselves
+			BitSet inherited = new BitSet();
+			for (LinkedTask parent : task.parents){
+				inherited.or(ancestors[indexes.get(parent)]);
+			}
+			// A parent that is also an ancestor of another parent is redundant
+			BitSet taskAncestors = (BitSet) inherited.clone();
+			boolean reduce = names == null || names.contains(task.getName());
+			Iterator<LinkedTask> deps = task.parents.iterator();
+			while (deps.hasNext()){
+				int parentIndex = indexes.get(deps.next());
+				taskAncestors.set(parentIndex);
+				if (reduce && inherited.get(parentIndex)){
+					deps.remove();
+				}
+			}
+			ancestors[i] = taskAncestors;
+		}
+	}
+
+	/**
+	 * Adds the parents the task needs for the reads and writes before it
+	 */
+	private static void link(LinkedTask lTask, Map<String, Upstream> upstream){
+		Task task = lTask.getTask();
+		for(String resource : task.getSourceResources()){
+			Upstream accesses = upstream.get(resource);
+			if (accesses != null){
+				addOverlapping(lTask.parents, accesses.writes, task.sourcePartitionsOf(resource));
+			}
+		}
+		for(String resource : task.getSinkResources()){
+			Upstream accesses = upstream.get(resource);
+			if (accesses != null){
+				Set<String> partitions = task.sinkPartitionsOf(resource);
+				addOverlapping(lTask.parents, accesses.writes, partitions);
+				addOverlapping(lTask.parents, accesses.reads, partitions);
+			}
+		}
+	}
+
+	/**
+	 * Records the reads and writes of the task for the tasks after it
+	 * @param tracked the resources to record, null for all of them
+	 */
+	private static void record(LinkedTask lTask, Map<String, Upstream> upstream, Set<String> tracked){
+		Task task = lTask.getTask();
+		for (String resource : task.getSourceResources()){
+			if (tracked == null || tracked.contains(resource)){
+				upstream(upstream, resource).reads.add(new Access(lTask, task.sourcePartitionsOf(resource)));
+			}
+		}
+		for(String resource : task.getSinkResources()){
+			if (tracked == null || tracked.contains(resource)){
+				// We can mark this as the upstream write for the following tasks
+				// Reads and writes of the partitions it covers can be dropped as writes trump reads,
+				// anything after that overlaps them overlaps this write too
+				Upstream accesses = upstream(upstream, resource);
+				Set<String> partitions = task.sinkPartitionsOf(resource);
+				removeCovered(accesses.writes, partitions);
+				removeCovered(accesses.reads, partitions);
+				accesses.writes.add(new Access(lTask, partitions));
+			}
+		}
+	}
+
+	private static void addOverlapping(Set<LinkedTask> parents, List<Access> accesses, Set<String> partitions){
+		for (Access access : accesses){
+			if (overlap(access.partitions, partitions)){
+				parents.add(access.task);
+			}
+		}
+	}
+
+	private static void removeCovered(List<Access> accesses, Set<String> partitions){
+		Iterator<Access> it = accesses.iterator();
+		while (it.hasNext()){
+			if (covers(partitions, it.next().partitions)){
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Whether two sets of partition specs can share a partition, null being the whole resource
+	 */
+	private static boolean overlap(Set<String> partitions, Set<String> otherPartitions){
+		if (partitions == null || otherPartitions == null){
+			return true;
+		}
+		for (String spec : partitions){
+			Map<String, String> keys = parseSpec(spec);
+			for (String otherSpec : otherPartitions){
+				if (agree(keys, parseSpec(otherSpec))){
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Whether every partition in the covered specs is also in the covering ones, null being the whole resource
+	 */
+	private static boolean covers(Set<String> covering, Set<String> covered){
+		if (covering == null){
+			return true;
+		}
+		if (covered == null){
+			return false;
+		}
+		for (String spec : covered){
+			Map<String, String> keys = parseSpec(spec);
+			boolean found = false;
+			for (String coveringSpec : covering){
+				if (keys.entrySet().containsAll(parseSpec(coveringSpec).entrySet())){
+					found = true;
+					break;
+				}
+			}
+			if (!found){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// Specs only share partitions when the keys they both give have the same values
+	private static boolean agree(Map<String, String> keys, Map<String, String> otherKeys){
+		for (Map.Entry<String, String> key : keys.entrySet()){
+			String otherValue = otherKeys.get(key.getKey());
+			if (otherValue != null && !otherValue.equals(key.getValue())){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Splits a key=value/... spec, values are escaped as in hive's partition dirs so never hold / or =
+	 */
+	private static Map<String, String> parseSpec(String spec){
+		Map<String, String> keys = new HashMap<>();
+		for (String part : spec.split("/")){
+			int equals = part.indexOf('=');
+			if (equals < 0){
+				throw new IllegalArgumentException("Bad partition spec " + spec);
+			}
+			keys.put(part.substring(0, equals), part.substring(equals + 1));
+		}
+		return keys;
+	}
+
+	private static boolean sameResources(Task task, Task other){
+		return task.getSourceResources().equals(other.getSourceResources())
+				&& task.getSinkResources().equals(other.getSinkResources())
+				&& equal(task.getSourcePartitions(), other.getSourcePartitions())
+				&& equal(task.getSinkPartitions(), other.getSinkPartitions());
+	}
+
+	private static boolean equal(Object a, Object b){
+		return a == null ? b == null : a.equals(b);
+	}
+
+	private static Upstream upstream(Map<String, Upstream> upstream, String resource){
+		Upstream accesses = upstream.get(resource);
+		if (accesses == null){
+			accesses = new Upstream();
+			upstream.put(resource, accesses);
+		}
+		return accesses;
+	}
+
+	/**
+	 * The reads and writes of a resource the tasks still to come may have to depend on
+	 */
+	private static class Upstream {
+		private final List<Access> writes = new ArrayList<>();
+		private final List<Access> reads = new ArrayList<>();
+	}
+
+	private static class Access {
+		private final LinkedTask task;
+		// Null when the whole resource is read or written
+		private final Set<String> partitions;
+
+		Access(LinkedTask task, Set<String> partitions) {
+			this.task = task;
+			this.partitions = partitions;
+		}
+	}
+}
@@ -1,5 +1,6 @@
 package batch_build.common.model.tasks;
 
+import java.util.Map;
 import java.util.Set;
 
 public class HiveTask extends Task {
@@ -10,6 +11,12 @@ public class HiveTask extends Task {
 			Set<String> sinkResources, String source) {
 		super(name, sourceResources, sinkResources, source);
 	}
+
+	public HiveTask(String name, Set<String> sourceResources, Set<String> sinkResources,
+			Map<String, Set<String>> sourcePartitions, Map<String, Set<String>> sinkPartitions,
+			Map<String, Set<String>> columnLineage, String source) {
+		super(name, sourceResources, sinkResources, sourcePartitions, sinkPartitions, columnLineage, source);
+	}
 	
 	public String toString(){
 		return "hive:" + getName() + " sources:" + getSourceResources() + " sinks:" + getSinkResources();
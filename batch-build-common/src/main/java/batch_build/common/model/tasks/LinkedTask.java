@@ -4,12 +4,17 @@ import java.util.HashSet;
 import java.util.Set;
 
 import com.fasterxml.jackson.annotation.JsonIdentityInfo;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
 import com.fasterxml.jackson.annotation.ObjectIdGenerators;
 
 @JsonIdentityInfo(property="name", generator=ObjectIdGenerators.PropertyGenerator.class)
 public class LinkedTask {
 	private Task task;
 	public Set<LinkedTask> parents = new HashSet<>();
+	// Only set when runtimes have been recorded
+	@JsonInclude(Include.NON_NULL)
+	private TaskTiming timing;
 	
 	private LinkedTask(){}
 	
@@ -47,6 +52,14 @@ public class LinkedTask {
 		return task;
 	}
 	
+	public TaskTiming getTiming(){
+		return timing;
+	}
+	
+	public void setTiming(TaskTiming timing){
+		this.timing = timing;
+	}
+	
 	public String getName(){
 		return task.getName();
 	}
@@ -0,0 +1,125 @@
+package batch_build.common.model.tasks;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Works out which tasks have to be rerun after scripts changed or the data in some columns
+ * was fixed, following column lineage where the model has it and whole tables where it does
+ * not. Columns are given as &lt;resource id&gt;.&lt;column&gt;, with * for every column of a table.
+ */
+public class RerunPlanner {
+
+	private RerunPlanner(){}
+
+	/**
+	 * @param tasks in dependency order, as held in the model
+	 * @param changedTasks names of the tasks whose scripts changed
+	 * @param changedColumns columns whose data changed
+	 * @param columnLevel false to ignore column lineage and only follow tables
+	 * @return the tasks to rerun in dependency order, each with the columns it changes
+	 */
+	public static Map<String, Set<String>> plan(List<LinkedTask> tasks, Set<String> changedTasks,
+			Set<String> changedColumns, boolean columnLevel){
+		Affected affected = new Affected();
+		for (String column : changedColumns){
+			affected.add(column);
+		}
+		Map<String, Set<String>> plan = new LinkedHashMap<>();
+		for (LinkedTask linkedTask : tasks){
+			Task task = linkedTask.getTask();
+			Map<String, Set<String>> lineage = columnLevel && task.getColumnLineage() != null
+					? task.getColumnLineage() : Collections.<String, Set<String>>emptyMap();
+			Set<String> changes = new TreeSet<>();
+			boolean changed = changedTasks.contains(task.getName());
+			if (changed){
+				for (String sink : task.getSinkResources()){
+					changes.add(sink + ".*");
+				}
+			} else {
+				// Lineage can run through tables the script writes itself, so go round until nothing new turns up
+				boolean found = true;
+				while (found){
+					found = false;
+					for (Map.Entry<String, Set<String>> column : lineage.entrySet()){
+						if (!changes.contains(column.getKey()) && affected.any(column.getValue())){
+							changes.add(column.getKey());
+							affected.add(column.getKey());
+							found = true;
+						}
+					}
+				}
+				for (String sink : task.getSinkResources()){
+					if (!hasLineage(lineage, sink) && affected.anyTable(task.getSourceResources())){
+						changes.add(sink + ".*");
+					}
+				}
+			}
+			for (String column : changes){
+				affected.add(column);
+			}
+			if (changed || !changes.isEmpty()){
+				plan.put(task.getName(), changes);
+			}
+		}
+		return plan;
+	}
+
+	private static boolean hasLineage(Map<String, Set<String>> lineage, String resource){
+		for (String column : lineage.keySet()){
+			if (column.startsWith(resource + ".")){
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Resource id of a column, everything before the column name
+	 */
+	public static String resourceOf(String column){
+		return column.substring(0, column.lastIndexOf('.'));
+	}
+
+	private static class Affected {
+		private final Set<String> columns = new HashSet<>();
+		// Tables with any affected column, and with all of them
+		private final Set<String> tables = new HashSet<>();
+		private final Set<String> wholeTables = new HashSet<>();
+
+		void add(String column){
+			String table = resourceOf(column);
+			columns.add(column);
+			tables.add(table);
+			if (column.endsWith(".*")){
+				wholeTables.add(table);
+			}
+		}
+
+		boolean any(Collection<String> sources){
+			for (String column : sources){
+				String table = resourceOf(column);
+				if (columns.contains(column) || wholeTables.contains(table)
+						|| (column.endsWith(".*") && tables.contains(table))){
+					return true;
+				}
+			}
+			return false;
+		}
+
+		boolean anyTable(Collection<String> resources){
+			for (String resource : resources){
+				if (tables.contains(resource)){
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+}
@@ -0,0 +1,33 @@
+package batch_build.common.model.tasks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.type.TypeFactory;
+
+/**
+ * Observed task runtimes, a json object of task name to duration in seconds
+ */
+public class RuntimeHistory {
+
+	private RuntimeHistory(){}
+
+	/**
+	 * @return the recorded durations, empty if the file does not exist
+	 */
+	public static Map<String, Double> read(File historyFile) throws IOException{
+		if (!historyFile.isFile()){
+			return new TreeMap<>();
+		}
+		return new ObjectMapper().readValue(historyFile, TypeFactory.defaultInstance()
+				.constructMapType(TreeMap.class, String.class, Double.class));
+	}
+
+	public static void write(File historyFile, Map<String, Double> durations) throws IOException{
+		historyFile.getAbsoluteFile().getParentFile().mkdirs();
+		new ObjectMapper().writer().withDefaultPrettyPrinter().writeValue(historyFile, new TreeMap<>(durations));
+	}
+}
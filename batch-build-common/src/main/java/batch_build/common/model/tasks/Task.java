@@ -1,19 +1,40 @@
 package batch_build.common.model.tasks;
 
+import java.io.IOException;
 import java.util.Collections;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 
 import lombok.Getter;
+import batch_build.common.model.SourceHolder;
+import batch_build.common.model.SourceStore;
+import batch_build.common.utils.Interner;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
 import com.fasterxml.jackson.annotation.JsonTypeInfo;
 
 @Getter
 @JsonTypeInfo(use=JsonTypeInfo.Id.CLASS, include=JsonTypeInfo.As.PROPERTY, property="@class")
-public abstract class Task {
+public abstract class Task implements SourceHolder {
 	private String name;
 	private Set<String> sourceResources;
 	private Set<String> sinkResources;
 	private String source;
+	// Written column to the columns it depends on, as <resource id>.<column> with * for a whole
+	// table. Null when the script's lineage is only known at table level
+	@JsonInclude(Include.NON_NULL)
+	private Map<String, Set<String>> columnLineage;
+	// Resource id to the partitions read or written, as key=value/... specs that can leave out
+	// keys. Resources missing from these are read or written whole
+	@JsonInclude(Include.NON_NULL)
+	private Map<String, Set<String>> sourcePartitions;
+	@JsonInclude(Include.NON_NULL)
+	private Map<String, Set<String>> sinkPartitions;
+	@JsonInclude(Include.NON_NULL)
+	private String sourceHash;
 	
 	protected Task(){}
 	
@@ -25,6 +46,85 @@ public abstract class Task {
 		this.source = source;
 	}
 	
+	public Task(String name, Set<String> sourceResources, Set<String> sinkResources,
+			Map<String, Set<String>> sourcePartitions, Map<String, Set<String>> sinkPartitions,
+			Map<String, Set<String>> columnLineage, String source) {
+		this(name, sourceResources, sinkResources, source);
+		this.sourcePartitions = sorted(sourcePartitions);
+		this.sinkPartitions = sorted(sinkPartitions);
+		this.columnLineage = sorted(columnLineage);
+	}
+	
+	// Sorted so the model is the same however the maps were put together
+	private static Map<String, Set<String>> sorted(Map<String, Set<String>> map){
+		if (map == null || map.isEmpty()){
+			return null;
+		}
+		Map<String, Set<String>> sorted = new TreeMap<>();
+		for (Map.Entry<String, Set<String>> entry : map.entrySet()){
+			sorted.put(entry.getKey(), Collections.unmodifiableSet(new TreeSet<>(entry.getValue())));
+		}
+		return Collections.unmodifiableMap(sorted);
+	}
+	
+	/**
+	 * The partitions of the resource read, null when it is read whole
+	 */
+	public Set<String> sourcePartitionsOf(String resource){
+		return sourcePartitions != null ? sourcePartitions.get(resource) : null;
+	}
+	
+	/**
+	 * The partitions of the resource written, null when it is written whole
+	 */
+	public Set<String> sinkPartitionsOf(String resource){
+		return sinkPartitions != null ? sinkPartitions.get(resource) : null;
+	}
+	
+	/**
+	 * Moves the source into the store, leaving only its hash on the task
+	 */
+	public void externalizeSource(SourceStore store) throws IOException{
+		if (source != null){
+			sourceHash = store.put(source);
+			source = null;
+		}
+	}
+	
+	/**
+	 * Swaps the resource ids, partition specs and column names for the interner's instances,
+	 * so tasks read or explained separately share them
+	 */
+	public void intern(Interner interner){
+		sourceResources = intern(sourceResources, interner);
+		sinkResources = intern(sinkResources, interner);
+		sourcePartitions = intern(sourcePartitions, interner);
+		sinkPartitions = intern(sinkPartitions, interner);
+		columnLineage = intern(columnLineage, interner);
+	}
+	
+	private static Set<String> intern(Set<String> values, Interner interner){
+		if (values == null){
+			return null;
+		}
+		Set<String> interned = new TreeSet<>();
+		for (String value : values){
+			interned.add(interner.intern(value));
+		}
+		return Collections.unmodifiableSet(interned);
+	}
+	
+	private static Map<String, Set<String>> intern(Map<String, Set<String>> map, Interner interner){
+		if (map == null){
+			return null;
+		}
+		Map<String, Set<String>> interned = new TreeMap<>();
+		for (Map.Entry<String, Set<String>> entry : map.entrySet()){
+			interned.put(interner.intern(entry.getKey()), intern(entry.getValue(), interner));
+		}
+		return Collections.unmodifiableMap(interned);
+	}
+	
 	public String toString(){
 		return name;
 	}
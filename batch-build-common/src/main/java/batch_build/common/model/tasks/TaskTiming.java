@@ -0,0 +1,39 @@
+package batch_build.common.model.tasks;
+
+import lombok.Getter;
+
+/**
+ * Where a task sits on the schedule worked out from recorded runtimes, all in seconds
+ * from the start of the flow assuming unlimited parallelism
+ */
+@Getter
+public class TaskTiming {
+	private double duration;
+	// False when the task has no recorded runtime and was given an estimate
+	private boolean recorded;
+	private double earliestStart;
+	private double latestStart;
+	// How long the task can be delayed without delaying the whole flow
+	private double slack;
+	// Longest chain from the start of this task to the end of the flow, the scheduling priority
+	private double remaining;
+	private boolean critical;
+
+	private TaskTiming(){}
+
+	public TaskTiming(double duration, boolean recorded, double earliestStart, double latestStart,
+			double remaining, boolean critical) {
+		this.duration = round(duration);
+		this.recorded = recorded;
+		this.earliestStart = round(earliestStart);
+		this.latestStart = round(latestStart);
+		this.slack = round(latestStart - earliestStart);
+		this.remaining = round(remaining);
+		this.critical = critical;
+	}
+
+	// Milliseconds are plenty and keep the model and reports readable
+	private static double round(double seconds){
+		return Math.round(seconds * 1000) / 1000.0;
+	}
+}
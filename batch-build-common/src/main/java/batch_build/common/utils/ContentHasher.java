@@ -0,0 +1,78 @@
+package batch_build.common.utils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Builds a hex SHA-1 digest over strings and files, used to key the
+ * various build caches on content rather than timestamps
+ */
+public class ContentHasher {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private final MessageDigest digest;
+
+	public ContentHasher(){
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-1 not available", e);
+		}
+	}
+
+	public ContentHasher update(String value){
+		if (value == null){
+			digest.update((byte) 0);
+		} else {
+			digest.update(value.getBytes(UTF8));
+			// Separator so that ("ab","c") and ("a","bc") hash differently
+			digest.update((byte) 0xff);
+		}
+		return this;
+	}
+
+	public ContentHasher update(byte[] bytes){
+		digest.update(bytes);
+		return this;
+	}
+
+	public ContentHasher update(File file) throws IOException{
+		InputStream in = new FileInputStream(file);
+		try {
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = in.read(buffer)) != -1){
+				digest.update(buffer, 0, read);
+			}
+		} finally {
+			in.close();
+		}
+		digest.update((byte) 0xff);
+		return this;
+	}
+
+	public String hex(){
+		byte[] bytes = digest.digest();
+		char[] chars = new char[bytes.length * 2];
+		for (int i = 0; i < bytes.length; i++){
+			chars[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+			chars[i * 2 + 1] = HEX[bytes[i] & 0xf];
+		}
+		return new String(chars);
+	}
+
+	public static String sha1(String value){
+		return new ContentHasher().update(value).hex();
+	}
+
+	public static String sha1(File file) throws IOException{
+		return new ContentHasher().update(file).hex();
+	}
+}
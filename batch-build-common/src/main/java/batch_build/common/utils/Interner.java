@@ -0,0 +1,26 @@
+package batch_build.common.utils;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Hands out one instance of every equal string, so the resource ids and column names that
+ * thousands of tasks repeat are held once. Unlike {@link String#intern()} the strings go
+ * away with the interner. Not thread safe.
+ */
+public class Interner {
+
+	private final Map<String, String> strings = new HashMap<>();
+
+	public String intern(String value){
+		if (value == null){
+			return null;
+		}
+		String interned = strings.get(value);
+		if (interned == null){
+			strings.put(value, value);
+			interned = value;
+		}
+		return interned;
+	}
+}
@@ -0,0 +1,331 @@
+package batch_build.common.model.tasks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import junit.framework.TestCase;
+
+public class DependencyOptimizerTest extends TestCase {
+
+	// Far above the second or so linking takes at this size, so only a change in complexity fails it
+	private static final long SCALE_MILLIS = 10000;
+	private static final int SCALE_TASKS = 20000;
+
+	public void testSameParentsAsPairwiseReduction(){
+		Random random = new Random(1);
+		for (int dag = 0; dag < 300; dag++){
+			List<Task> tasks = randomTasks(random, 5 + random.nextInt(40), 1 + random.nextInt(12));
+			assertEquals("dag " + dag, parents(pairwiseOptimizeDeps(tasks)),
+					parents(DependencyOptimizer.optimizeDeps(tasks)));
+		}
+	}
+
+	public void testScalesToLargeDag(){
+		Random random = new Random(2);
+		List<Task> tasks = new ArrayList<>();
+		for (int i = 0; i < SCALE_TASKS; i++){
+			Set<String> sources = new HashSet<>();
+			for (int j = 0; j < 3 && i > 0; j++){
+				sources.add(resource(Math.max(0, i - 1 - random.nextInt(100))));
+			}
+			// A quarter of the tasks write a table an earlier task wrote too
+			int sink = random.nextInt(4) == 0 ? random.nextInt(i + 1) : i;
+			tasks.add(task("task" + i, sources, set(resource(sink))));
+		}
+		long start = System.currentTimeMillis();
+		List<LinkedTask> linkedTasks = DependencyOptimizer.optimizeDeps(tasks);
+		long millis = System.currentTimeMillis() - start;
+		assertEquals(SCALE_TASKS, linkedTasks.size());
+		assertTrue("Took " + millis + "ms", millis < SCALE_MILLIS);
+	}
+
+	public void testLongChain(){
+		List<Task> tasks = new ArrayList<>();
+		tasks.add(task("task0", new HashSet<String>(), set(resource(0))));
+		for (int i = 1; i < SCALE_TASKS; i++){
+			// Reading the first table too gives every task a redundant dep on the first task
+			tasks.add(task("task" + i, set(resource(i - 1), resource(0)), set(resource(i))));
+		}
+		long start = System.currentTimeMillis();
+		List<LinkedTask> linkedTasks = DependencyOptimizer.optimizeDeps(tasks);
+		long millis = System.currentTimeMillis() - start;
+		assertTrue("Took " + millis + "ms", millis < SCALE_MILLIS);
+		assertTrue(linkedTasks.get(0).getParents().isEmpty());
+		for (int i = 1; i < SCALE_TASKS; i++){
+			Set<LinkedTask> parents = linkedTasks.get(i).getParents();
+			assertEquals(1, parents.size());
+			assertSame(linkedTasks.get(i - 1), parents.iterator().next());
+		}
+	}
+
+	public void testIncrementalSameAsFullLink(){
+		Random random = new Random(3);
+		int fallbacks = 0;
+		int partial = 0;
+		for (int dag = 0; dag < 200; dag++){
+			int resourceCount = 2 + random.nextInt(12);
+			List<Task> tasks = randomTasks(random, 5 + random.nextInt(40), resourceCount);
+			List<LinkedTask> previous = DependencyOptimizer.optimizeDeps(tasks);
+			int added = 0;
+			// A few builds in a row, each linked from the one before as compile does
+			for (int build = 0; build < 5; build++){
+				tasks = new ArrayList<>(tasks);
+				for (int edit = 1 + random.nextInt(3); edit > 0; edit--){
+					int i = random.nextInt(tasks.size());
+					switch (random.nextInt(5)){
+					case 0:
+						// The script changed what it reads or writes
+						tasks.set(i, randomTask(random, tasks.get(i).getName(), resourceCount));
+						break;
+					case 1:
+						// The script changed but not its tables
+						Task task = tasks.get(i);
+						tasks.set(i, task(task.getName(), task.getSourceResources(), task.getSinkResources()));
+						break;
+					case 2:
+						tasks.add(i, randomTask(random, "added" + dag + "_" + added++, resourceCount));
+						break;
+					case 3:
+						if (tasks.size() > 1){
+							tasks.remove(i);
+						}
+						break;
+					default:
+						int j = random.nextInt(tasks.size());
+						if (i != j){
+							tasks.set(i, tasks.set(j, tasks.get(i)));
+						}
+					}
+				}
+				DependencyDiff diff = new DependencyDiff();
+				List<LinkedTask> incremental = DependencyOptimizer.optimizeDeps(tasks, previous, diff);
+				Map<String, Set<String>> full = parents(DependencyOptimizer.optimizeDeps(tasks));
+				String message = "dag " + dag + " build " + build;
+				assertEquals(message, full, parents(incremental));
+				assertEquals(message, edges(full), applied(diff, edges(parents(previous))));
+				if (reordered(previous, tasks)){
+					// Linked from scratch, everything counts as relinked
+					assertEquals(message, tasks.size(), diff.getRelinkedTasks().size());
+					fallbacks++;
+				} else if (diff.getRelinkedTasks().size() < tasks.size()){
+					partial++;
+				}
+				previous = incremental;
+			}
+		}
+		assertTrue("Only " + fallbacks + " builds fell back to a full link", fallbacks > 50);
+		assertTrue("Only " + partial + " builds carried parents over", partial > 50);
+	}
+
+	public void testDisjointPartitionWritersIndependent(){
+		Map<String, Set<String>> parents = parents(DependencyOptimizer.optimizeDeps(Arrays.asList(
+				write("day1", "dt=1"),
+				write("day2", "dt=2"),
+				write("day1Again", "dt=1"))));
+		assertEquals(set(), parents.get("day2"));
+		assertEquals(set("day1"), parents.get("day1Again"));
+	}
+
+	public void testWholeAndPartialWritesOrdered(){
+		Map<String, Set<String>> parents = parents(DependencyOptimizer.optimizeDeps(Arrays.asList(
+				write("whole", null),
+				// Leaves out src so writes every src of the day
+				write("day1", "dt=1"),
+				write("day1SrcA", "dt=1/src=a"),
+				write("day2SrcA", "dt=2/src=a"),
+				write("wholeAgain", null))));
+		assertEquals(set("whole"), parents.get("day1"));
+		assertEquals(set("day1"), parents.get("day1SrcA"));
+		assertEquals(set("whole"), parents.get("day2SrcA"));
+		assertEquals(set("day1SrcA", "day2SrcA"), parents.get("wholeAgain"));
+	}
+
+	public void testReaderWaitsOnlyForItsPartition(){
+		Map<String, Set<String>> parents = parents(DependencyOptimizer.optimizeDeps(Arrays.asList(
+				write("day1", "dt=1"),
+				write("day2", "dt=2"),
+				read("readDay1", "dt=1"),
+				read("readDay1SrcA", "dt=1/src=a"),
+				read("readWhole", null),
+				write("day2Again", "dt=2"))));
+		assertEquals(set("day1"), parents.get("readDay1"));
+		assertEquals(set("day1"), parents.get("readDay1SrcA"));
+		assertEquals(set("day1", "day2"), parents.get("readWhole"));
+		// Waits for the whole table read but not the reads of another day
+		assertEquals(set("readWhole"), parents.get("day2Again"));
+	}
+
+	/**
+	 * Linking as it was before the bitset reduction, which recursed through every chain of parents
+	 */
+	private static List<LinkedTask> pairwiseOptimizeDeps(List<Task> tasks){
+		List<LinkedTask> linkedTasks = new ArrayList<>();
+		Map<String, Set<LinkedTask>> upstreamReads = new HashMap<>();
+		Map<String, LinkedTask> upstreamWrites = new HashMap<>();
+		for (Task task : tasks){
+			LinkedTask lTask = new LinkedTask(task);
+			for (String resource : task.getSourceResources()){
+				LinkedTask upstreamWrite = upstreamWrites.get(resource);
+				if (upstreamWrite != null){
+					lTask.parents.add(upstreamWrite);
+				}
+			}
+			for (String resource : task.getSinkResources()){
+				LinkedTask upstreamWrite = upstreamWrites.get(resource);
+				if (upstreamWrite != null){
+					lTask.parents.add(upstreamWrite);
+				}
+				if (upstreamReads.containsKey(resource)){
+					lTask.parents.addAll(upstreamReads.get(resource));
+				}
+			}
+			for (String resource : task.getSourceResources()){
+				if (!upstreamReads.containsKey(resource)){
+					upstreamReads.put(resource, new HashSet<LinkedTask>());
+				}
+				upstreamReads.get(resource).add(lTask);
+			}
+			for (String resource : task.getSinkResources()){
+				upstreamWrites.put(resource, lTask);
+				upstreamReads.remove(resource);
+			}
+			linkedTasks.add(lTask);
+		}
+
+		for (LinkedTask task : linkedTasks){
+			Iterator<LinkedTask> deps = task.parents.iterator();
+			deploop: while (deps.hasNext()){
+				LinkedTask dep = deps.next();
+				for (LinkedTask t : new ArrayList<>(task.parents)){
+					if (t != dep && t.isDependentOn(dep)){
+						deps.remove();
+						continue deploop;
+					}
+				}
+			}
+		}
+		return linkedTasks;
+	}
+
+	/**
+	 * Tasks reading and writing tables picked at random from a few
+	 */
+	static List<Task> randomTasks(Random random, int taskCount, int resourceCount){
+		List<Task> tasks = new ArrayList<>();
+		for (int i = 0; i < taskCount; i++){
+			tasks.add(randomTask(random, "task" + i, resourceCount));
+		}
+		return tasks;
+	}
+
+	static Task randomTask(Random random, String name, int resourceCount){
+		Set<String> sources = new HashSet<>();
+		for (int j = random.nextInt(4); j > 0; j--){
+			sources.add(resource(random.nextInt(resourceCount)));
+		}
+		Set<String> sinks = new HashSet<>();
+		for (int j = 1 + random.nextInt(2); j > 0; j--){
+			sinks.add(resource(random.nextInt(resourceCount)));
+		}
+		sources.removeAll(sinks);
+		return task(name, sources, sinks);
+	}
+
+	static Task task(String name, Set<String> sources, Set<String> sinks){
+		return new HiveTask(name, sources, sinks, "-- " + name);
+	}
+
+	/**
+	 * A task writing the partitions of the spec to a partitioned table, all of it when null
+	 */
+	private static Task write(String name, String spec){
+		return new HiveTask(name, set(), set(resource(0)), null, partitions(spec), null, "-- " + name);
+	}
+
+	private static Task read(String name, String spec){
+		return new HiveTask(name, set(resource(0)), set("hcat:test." + name), partitions(spec), null, null, "-- " + name);
+	}
+
+	private static Map<String, Set<String>> partitions(String spec){
+		Map<String, Set<String>> partitions = new HashMap<>();
+		if (spec != null){
+			partitions.put(resource(0), set(spec));
+		}
+		return partitions;
+	}
+
+	static Set<String> set(String... items){
+		return new HashSet<>(Arrays.asList(items));
+	}
+
+	/**
+	 * Whether the tasks of both builds are in a different order
+	 */
+	private static boolean reordered(List<LinkedTask> previous, List<Task> tasks){
+		Set<String> names = new HashSet<>();
+		for (Task task : tasks){
+			names.add(task.getName());
+		}
+		List<String> before = new ArrayList<>();
+		for (LinkedTask task : previous){
+			if (names.remove(task.getName())){
+				before.add(task.getName());
+			}
+		}
+		List<String> after = new ArrayList<>();
+		for (Task task : tasks){
+			if (!names.contains(task.getName())){
+				after.add(task.getName());
+			}
+		}
+		return !before.equals(after);
+	}
+
+	private static Set<String> edges(Map<String, Set<String>> parents){
+		Set<String> edges = new TreeSet<>();
+		for (Map.Entry<String, Set<String>> task : parents.entrySet()){
+			for (String parent : task.getValue()){
+				edges.add(parent + " -> " + task.getKey());
+			}
+		}
+		return edges;
+	}
+
+	private static Set<String> applied(DependencyDiff diff, Set<String> edges){
+		for (DependencyDiff.Edge edge : diff.getRemovedEdges()){
+			assertTrue("Removed " + edge + " that was not there", edges.remove(edge.toString()));
+		}
+		for (DependencyDiff.Edge edge : diff.getAddedEdges()){
+			assertTrue("Added " + edge + " that was already there", edges.add(edge.toString()));
+		}
+		return edges;
+	}
+
+	static String resource(int number){
+		return "hcat:test.table" + number;
+	}
+
+	/**
+	 * Task name to the names of its parents, sorted
+	 */
+	static Map<String, Set<String>> parents(List<LinkedTask> linkedTasks){
+		Map<String, Set<String>> parents = new TreeMap<>();
+		for (LinkedTask task : linkedTasks){
+			Set<String> names = new TreeSet<>();
+			for (LinkedTask parent : task.getParents()){
+				names.add(parent.getName());
+			}
+			parents.put(task.getName(), names);
+		}
+		return parents;
+	}
+}
@@ -0,0 +1,141 @@
+package batch_build.common.model.tasks;
+
+import static batch_build.common.model.tasks.DependencyOptimizerTest.resource;
+import static batch_build.common.model.tasks.DependencyOptimizerTest.set;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+public class RerunPlannerTest extends TestCase {
+
+	private static final String RAW = "hcat:test.raw";
+	private static final String CLEAN = "hcat:test.clean";
+	private static final String ONLY_X = "hcat:test.only_x";
+	private static final String ONLY_Y = "hcat:test.only_y";
+	private static final String REPORT = "hcat:test.report";
+
+	/**
+	 * raw(a, b) -> clean(x, y), clean.x -> only_x(v), clean.y -> only_y(w), only_y -> report
+	 * without lineage, and a task on tables of its own
+	 */
+	private static List<LinkedTask> tasks(){
+		return DependencyOptimizer.optimizeDeps(Arrays.asList(
+				task("clean", set(RAW), set(CLEAN), lineage(
+						CLEAN + ".x", RAW + ".a",
+						CLEAN + ".y", RAW + ".b")),
+				task("fromX", set(CLEAN), set(ONLY_X), lineage(ONLY_X + ".v", CLEAN + ".x")),
+				task("fromY", set(CLEAN), set(ONLY_Y), lineage(ONLY_Y + ".w", CLEAN + ".y")),
+				task("report", set(ONLY_Y), set(REPORT), null),
+				task("unrelated", set(resource(0)), set(resource(1)), null)));
+	}
+
+	public void testColumnReachesSomeDownstreamColumns(){
+		Map<String, Set<String>> plan = RerunPlanner.plan(tasks(), set(), set(RAW + ".a"), true);
+		Map<String, Set<String>> expected = new LinkedHashMap<>();
+		expected.put("clean", set(CLEAN + ".x"));
+		expected.put("fromX", set(ONLY_X + ".v"));
+		assertEquals(expected, plan);
+	}
+
+	public void testChangedTask(){
+		Map<String, Set<String>> plan = RerunPlanner.plan(tasks(), set("clean"), set(), true);
+		Map<String, Set<String>> expected = new LinkedHashMap<>();
+		// The script itself changed, so every column it writes may have
+		expected.put("clean", set(CLEAN + ".*"));
+		expected.put("fromX", set(ONLY_X + ".v"));
+		expected.put("fromY", set(ONLY_Y + ".w"));
+		expected.put("report", set(REPORT + ".*"));
+		assertEquals(expected, plan);
+		assertEquals(new ArrayList<>(expected.keySet()), new ArrayList<>(plan.keySet()));
+	}
+
+	public void testSinkWithoutLineageFallsBackToTable(){
+		Map<String, Set<String>> plan = RerunPlanner.plan(tasks(), set(), set(RAW + ".b"), true);
+		Map<String, Set<String>> expected = new LinkedHashMap<>();
+		expected.put("clean", set(CLEAN + ".y"));
+		expected.put("fromY", set(ONLY_Y + ".w"));
+		expected.put("report", set(REPORT + ".*"));
+		assertEquals(expected, plan);
+	}
+
+	public void testColumnPlanSmallerThanTablePlan(){
+		Map<String, Set<String>> columns = RerunPlanner.plan(tasks(), set(), set(RAW + ".a"), true);
+		Map<String, Set<String>> tables = RerunPlanner.plan(tasks(), set(), set(RAW + ".a"), false);
+		Map<String, Set<String>> expected = new LinkedHashMap<>();
+		expected.put("clean", set(CLEAN + ".*"));
+		expected.put("fromX", set(ONLY_X + ".*"));
+		expected.put("fromY", set(ONLY_Y + ".*"));
+		expected.put("report", set(REPORT + ".*"));
+		assertEquals(expected, tables);
+		assertEquals(2, columns.size());
+		assertTrue(tables.keySet().containsAll(columns.keySet()));
+	}
+
+	public void testColumnPlanWithinTablePlan(){
+		Random random = new Random(4);
+		int smaller = 0;
+		for (int dag = 0; dag < 300; dag++){
+			int resourceCount = 2 + random.nextInt(10);
+			List<Task> tasks = new ArrayList<>();
+			for (Task task : DependencyOptimizerTest.randomTasks(random, 5 + random.nextInt(30), resourceCount)){
+				tasks.add(random.nextInt(4) == 0 ? task
+						: task(task.getName(), task.getSourceResources(), task.getSinkResources(), randomLineage(random, task)));
+			}
+			List<LinkedTask> linkedTasks = DependencyOptimizer.optimizeDeps(tasks);
+			Set<String> changedTasks = new HashSet<>();
+			if (random.nextBoolean()){
+				changedTasks.add(tasks.get(random.nextInt(tasks.size())).getName());
+			}
+			Set<String> changedColumns = set(resource(random.nextInt(resourceCount)) + ".c" + random.nextInt(3));
+			Map<String, Set<String>> columns = RerunPlanner.plan(linkedTasks, changedTasks, changedColumns, true);
+			Map<String, Set<String>> tables = RerunPlanner.plan(linkedTasks, changedTasks, changedColumns, false);
+			assertTrue("dag " + dag, tables.keySet().containsAll(columns.keySet()));
+			if (columns.size() < tables.size()){
+				smaller++;
+			}
+		}
+		assertTrue("Only " + smaller + " column plans were smaller", smaller > 50);
+	}
+
+	/**
+	 * Lineage for columns c0 to c2 of each sink, each from a few columns of the sources
+	 */
+	private static Map<String, Set<String>> randomLineage(Random random, Task task){
+		List<String> sources = new ArrayList<>(task.getSourceResources());
+		Map<String, Set<String>> lineage = new HashMap<>();
+		for (String sink : task.getSinkResources()){
+			for (int column = 0; column < 3; column++){
+				Set<String> from = new HashSet<>();
+				for (int j = sources.isEmpty() ? 0 : random.nextInt(3); j > 0; j--){
+					from.add(sources.get(random.nextInt(sources.size())) + ".c" + random.nextInt(3));
+				}
+				lineage.put(sink + ".c" + column, from);
+			}
+		}
+		return lineage;
+	}
+
+	/**
+	 * @param columnsAndSources each column followed by the one column it is made from
+	 */
+	private static Map<String, Set<String>> lineage(String... columnsAndSources){
+		Map<String, Set<String>> lineage = new HashMap<>();
+		for (int i = 0; i < columnsAndSources.length; i += 2){
+			lineage.put(columnsAndSources[i], set(columnsAndSources[i + 1]));
+		}
+		return lineage;
+	}
+
+	private static Task task(String name, Set<String> sources, Set<String> sinks, Map<String, Set<String>> lineage){
+		return new HiveTask(name, sources, sinks, null, null, lineage, "-- " + name);
+	}
+}
@@ -0,0 +1,97 @@
+package batch_build.mojo;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Sends the timings of a {@link BuildProfile} to flight recorder as batch_build.BuildStep
+ * events, so they show up in a recording next to gc, compilation and the rest, e.g. with
+ * MAVEN_OPTS=-XX:StartFlightRecording=filename=build.jfr. The flight recorder API only comes
+ * with java 8u262 and later while the build targets java 7, so the event type is made with
+ * its EventFactory through reflection, and nothing is sent when the jvm does not have it.
+ */
+class BuildEvents {
+
+	// Null without flight recorder
+	private static final BuildEvents INSTANCE = create();
+
+	private final Object factory;
+	private final Method newEvent;
+	private final Method begin;
+	private final Method end;
+	private final Method set;
+	private final Method commit;
+
+	private BuildEvents(Object factory) throws ReflectiveOperationException {
+		Class<?> event = Class.forName("jdk.jfr.Event");
+		this.factory = factory;
+		this.newEvent = factory.getClass().getMethod("newEvent");
+		this.begin = event.getMethod("begin");
+		this.end = event.getMethod("end");
+		this.set = event.getMethod("set", int.class, Object.class);
+		this.commit = event.getMethod("commit");
+	}
+
+	private static BuildEvents create(){
+		try {
+			Class<?> annotationElement = Class.forName("jdk.jfr.AnnotationElement");
+			Class<?> valueDescriptor = Class.forName("jdk.jfr.ValueDescriptor");
+			Constructor<?> annotation = annotationElement.getConstructor(Class.class, Object.class);
+			List<Object> annotations = Arrays.asList(
+					annotation.newInstance(Class.forName("jdk.jfr.Name"), "batch_build.BuildStep"),
+					annotation.newInstance(Class.forName("jdk.jfr.Label"), "Build Step"),
+					annotation.newInstance(Class.forName("jdk.jfr.Category"), new String[]{"Batch Build"}),
+					// It would only show the reflection calls
+					annotation.newInstance(Class.forName("jdk.jfr.StackTrace"), false));
+			Constructor<?> field = valueDescriptor.getConstructor(Class.class, String.class);
+			List<Object> fields = Arrays.asList(
+					field.newInstance(String.class, "kind"),
+					field.newInstance(String.class, "name"),
+					field.newInstance(long.class, "allocatedBytes"),
+					field.newInstance(String.class, "detail"));
+			Object factory = Class.forName("jdk.jfr.EventFactory").getMethod("create", List.class, List.class)
+					.invoke(null, annotations, fields);
+			return new BuildEvents(factory);
+		} catch (ReflectiveOperationException | LinkageError e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Starts an event, null without flight recorder
+	 */
+	static Object begin(){
+		if (INSTANCE == null){
+			return null;
+		}
+		try {
+			Object event = INSTANCE.newEvent.invoke(INSTANCE.factory);
+			INSTANCE.begin.invoke(event);
+			return event;
+		} catch (ReflectiveOperationException e) {
+			throw new RuntimeException("Failed to start flight recorder event", e);
+		}
+	}
+
+	/**
+	 * Ends the event started by {@link #begin()} and records it if a recording wants it
+	 * @param allocatedBytes -1 when not known
+	 */
+	static void commit(Object event, String kind, String name, long allocatedBytes, String detail){
+		if (event == null){
+			return;
+		}
+		try {
+			INSTANCE.end.invoke(event);
+			INSTANCE.set.invoke(event, 0, kind);
+			INSTANCE.set.invoke(event, 1, name);
+			INSTANCE.set.invoke(event, 2, allocatedBytes);
+			INSTANCE.set.invoke(event, 3, detail);
+			INSTANCE.commit.invoke(event);
+		} catch (ReflectiveOperationException e) {
+			throw new RuntimeException("Failed to commit flight recorder event", e);
+		}
+	}
+}
@@ -0,0 +1,149 @@
+package batch_build.mojo;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import lombok.Getter;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Wall time and allocation of the phases of a build and of each table DDL file and script
+ * run in them. Written as json to compare builds over time, and sent to flight recorder as
+ * {@link BuildEvents} when the jvm has it. Allocation is counted on the thread doing the
+ * work, so a phase does not include what its worker threads allocate, the scripts do.
+ * Kept free of any maven classes so it can also be used by the compile daemon.
+ */
+@Getter
+public class BuildProfile {
+
+	private final long started = System.currentTimeMillis();
+	private long millis;
+	private final List<Entry> phases = Collections.synchronizedList(new ArrayList<Entry>());
+	private final List<Entry> ddl = Collections.synchronizedList(new ArrayList<Entry>());
+	private final List<Entry> scripts = Collections.synchronizedList(new ArrayList<Entry>());
+
+	@Getter
+	public static class Entry {
+		private final String name;
+		private final long millis;
+		// Null when the jvm cannot count allocation per thread
+		@JsonInclude(Include.NON_NULL)
+		private final Long allocatedBytes;
+		@JsonInclude(Include.NON_NULL)
+		private final String detail;
+
+		private Entry(String name, long millis, Long allocatedBytes, String detail) {
+			this.name = name;
+			this.millis = millis;
+			this.allocatedBytes = allocatedBytes;
+			this.detail = detail;
+		}
+	}
+
+	/**
+	 * Times one piece of work until closed, which must happen on the thread that started it
+	 */
+	public class Timer implements AutoCloseable {
+		private final List<Entry> entries;
+		private final String kind;
+		private final String name;
+		private final long start = System.nanoTime();
+		private final long startAllocated = allocatedBytes();
+		private final Object event;
+		private String detail;
+
+		private Timer(List<Entry> entries, String kind, String name) {
+			this.entries = entries;
+			this.kind = kind;
+			this.name = name;
+			this.event = BuildEvents.begin();
+		}
+
+		/**
+		 * Notes something about how the work went, e.g. that it came from a cache
+		 */
+		public void setDetail(String detail){
+			this.detail = detail;
+		}
+
+		@Override
+		public void close(){
+			long millis = (System.nanoTime() - start) / 1000000;
+			long allocated = allocatedBytes();
+			Long bytes = allocated >= 0 && startAllocated >= 0 ? allocated - startAllocated : null;
+			entries.add(new Entry(name, millis, bytes, detail));
+			BuildEvents.commit(event, kind, name, bytes != null ? bytes : -1, detail);
+		}
+	}
+
+	public Timer phase(String name){
+		return new Timer(phases, "phase", name);
+	}
+
+	public Timer ddl(String fileName){
+		return new Timer(ddl, "ddl", fileName);
+	}
+
+	public Timer script(String taskName){
+		return new Timer(scripts, "script", taskName);
+	}
+
+	/**
+	 * The scripts, slowest first
+	 */
+	public List<Entry> slowestScripts(){
+		List<Entry> slowest;
+		synchronized (scripts) {
+			slowest = new ArrayList<>(scripts);
+		}
+		Collections.sort(slowest, new Comparator<Entry>() {
+			@Override
+			public int compare(Entry a, Entry b) {
+				return Long.compare(b.millis, a.millis);
+			}
+		});
+		return slowest;
+	}
+
+	/**
+	 * Writes the profile with the entries sorted by name, so profiles of different builds diff well
+	 */
+	public void write(File file) throws IOException {
+		millis = System.currentTimeMillis() - started;
+		Comparator<Entry> byName = new Comparator<Entry>() {
+			@Override
+			public int compare(Entry a, Entry b) {
+				return a.name.compareTo(b.name);
+			}
+		};
+		synchronized (ddl) {
+			Collections.sort(ddl, byName);
+		}
+		synchronized (scripts) {
+			Collections.sort(scripts, byName);
+		}
+		new ObjectMapper().writer().withDefaultPrettyPrinter().writeValue(file, this);
+	}
+
+	/**
+	 * Bytes allocated by the current thread so far, -1 if the jvm does not count them
+	 */
+	private static long allocatedBytes(){
+		java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (threads instanceof com.sun.management.ThreadMXBean){
+			com.sun.management.ThreadMXBean hotspotThreads = (com.sun.management.ThreadMXBean) threads;
+			if (hotspotThreads.isThreadAllocatedMemorySupported() && hotspotThreads.isThreadAllocatedMemoryEnabled()){
+				return hotspotThreads.getThreadAllocatedBytes(Thread.currentThread().getId());
+			}
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,294 @@
+package batch_build.mojo;
+
+import java.io.Serializable;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.hadoop.hive.metastore.api.FieldSchema;
+import org.apache.hadoop.hive.ql.exec.ColumnInfo;
+import org.apache.hadoop.hive.ql.exec.CommonJoinOperator;
+import org.apache.hadoop.hive.ql.exec.ConditionalTask;
+import org.apache.hadoop.hive.ql.exec.FilterOperator;
+import org.apache.hadoop.hive.ql.exec.GroupByOperator;
+import org.apache.hadoop.hive.ql.exec.HashTableDummyOperator;
+import org.apache.hadoop.hive.ql.exec.HashTableSinkOperator;
+import org.apache.hadoop.hive.ql.exec.Operator;
+import org.apache.hadoop.hive.ql.exec.ReduceSinkOperator;
+import org.apache.hadoop.hive.ql.exec.Task;
+import org.apache.hadoop.hive.ql.exec.UDTFOperator;
+import org.apache.hadoop.hive.ql.hooks.LineageInfo.BaseColumnInfo;
+import org.apache.hadoop.hive.ql.hooks.LineageInfo.DataContainer;
+import org.apache.hadoop.hive.ql.hooks.LineageInfo.Dependency;
+import org.apache.hadoop.hive.ql.hooks.ReadEntity;
+import org.apache.hadoop.hive.ql.hooks.WriteEntity;
+import org.apache.hadoop.hive.ql.metadata.Table;
+import org.apache.hadoop.hive.ql.optimizer.lineage.LineageCtx.Index;
+import org.apache.hadoop.hive.ql.plan.ExprNodeDesc;
+import org.apache.hadoop.hive.ql.plan.JoinDesc;
+import org.apache.hadoop.hive.ql.plan.LoadTableDesc;
+import org.apache.hadoop.hive.ql.plan.MapJoinDesc;
+import org.apache.hadoop.hive.ql.plan.MapredLocalWork;
+import org.apache.hadoop.hive.ql.plan.MapredWork;
+import org.apache.hadoop.hive.ql.plan.MoveWork;
+import org.apache.hadoop.hive.ql.session.LineageState;
+import org.apache.hadoop.hive.ql.session.SessionState;
+
+/**
+ * Column lineage of a hive statement, taken from the lineage hive works out while compiling
+ * it. A written column depends on the columns its value is computed from and on the columns
+ * used in filters, joins and group bys, as those decide which rows get written. Where hive's
+ * lineage cannot be followed every column of every input is taken instead. Columns are
+ * identified as &lt;resource id&gt;.&lt;column&gt;, with * standing for all columns of a table.
+ */
+class ColumnLineage {
+
+	private ColumnLineage(){}
+
+	/**
+	 * Adds the lineage of the tables the statement inserts into
+	 */
+	static void collect(List<Task<? extends Serializable>> rootTasks, Set<ReadEntity> inputs,
+			Set<WriteEntity> outputs, Map<String, Set<String>> lineage){
+		LineageState state = SessionState.get().getLineageState();
+		List<Task<? extends Serializable>> tasks = allTasks(rootTasks);
+		Set<String> allInputs = new TreeSet<>();
+		for (ReadEntity input : inputs){
+			if (input.getTable() != null){
+				allInputs.add(tableId(input.getTable()) + ".*");
+			}
+		}
+		Set<String> rowSources = rowSources(tasks, inputs, index(state), allInputs);
+
+		for (Task<? extends Serializable> task : tasks){
+			if (!(task.getWork() instanceof MoveWork) || ((MoveWork) task.getWork()).getLoadTableWork() == null){
+				continue;
+			}
+			LoadTableDesc load = ((MoveWork) task.getWork()).getLoadTableWork();
+			Table table = outputTable(outputs, load.getTable().getTableName());
+			if (table == null){
+				continue;
+			}
+			// What MoveTask would do when the statement runs
+			DataContainer container = new DataContainer(table.getTTable());
+			state.setLineage(load.getSourceDir(), container, table.getCols());
+			for (FieldSchema column : table.getCols()){
+				Set<String> sources = new TreeSet<>(rowSources);
+				Dependency dependency = state.getLineageInfo().getDependency(container, column);
+				if (dependency == null){
+					sources.addAll(allInputs);
+				} else {
+					addBaseColumns(dependency, sources);
+				}
+				String target = tableId(table) + "." + column.getName();
+				if (lineage.containsKey(target)){
+					lineage.get(target).addAll(sources);
+				} else {
+					lineage.put(target, sources);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Columns deciding which rows are written: those used by filters, reduce sink keys (joins,
+	 * group bys, sorts), group by and map join keys, resolved through hive's lineage index. The
+	 * partition keys of partitioned inputs count too, partition filters are gone by the time
+	 * the plan is made.
+	 */
+	private static Set<String> rowSources(List<Task<? extends Serializable>> tasks, Set<ReadEntity> inputs,
+			Index index, Set<String> allInputs){
+		Set<String> sources = new TreeSet<>();
+		if (index == null){
+			sources.addAll(allInputs);
+			return sources;
+		}
+		for (ReadEntity input : inputs){
+			if (input.getTable() != null && input.getTable().isPartitioned()){
+				for (FieldSchema key : input.getTable().getPartitionKeys()){
+					sources.add(tableId(input.getTable()) + "." + key.getName());
+				}
+			}
+		}
+		for (Operator<?> operator : allOperators(tasks)){
+			Map<Integer, List<ExprNodeDesc>> exprsByParent = new HashMap<>();
+			if (operator instanceof FilterOperator){
+				add(exprsByParent, 0, Collections.singletonList(((FilterOperator) operator).getConf().getPredicate()));
+			} else if (operator instanceof ReduceSinkOperator){
+				add(exprsByParent, 0, ((ReduceSinkOperator) operator).getConf().getKeyCols());
+				add(exprsByParent, 0, ((ReduceSinkOperator) operator).getConf().getPartitionCols());
+			} else if (operator instanceof GroupByOperator){
+				add(exprsByParent, 0, ((GroupByOperator) operator).getConf().getKeys());
+			} else if (operator instanceof CommonJoinOperator || operator instanceof HashTableSinkOperator){
+				// Keys and outer join filters are held per input, by tag
+				JoinDesc join = (JoinDesc) operator.getConf();
+				Map<Byte, List<ExprNodeDesc>> keys = operator instanceof HashTableSinkOperator
+						? ((HashTableSinkOperator) operator).getConf().getKeys()
+						: join instanceof MapJoinDesc ? ((MapJoinDesc) join).getKeys() : null;
+				List<? extends Operator<?>> parents = operator.getParentOperators();
+				for (int i = 0; parents != null && i < parents.size(); i++){
+					if (parents.get(i) == null || parents.get(i) instanceof HashTableDummyOperator){
+						// The other side of a map join, resolved at the map join or the hash table sink
+						continue;
+					}
+					if (keys != null){
+						add(exprsByParent, i, keys.get((byte) i));
+					}
+					if (join.getFilters() != null){
+						add(exprsByParent, i, join.getFilters().get((byte) i));
+					}
+				}
+			} else if (operator instanceof UDTFOperator){
+				// Which rows come out depends on the function
+				sources.addAll(allInputs);
+				return sources;
+			}
+			for (Map.Entry<Integer, List<ExprNodeDesc>> exprs : exprsByParent.entrySet()){
+				for (ExprNodeDesc expr : exprs.getValue()){
+					if (expr != null && expr.getCols() != null
+							&& !resolve(operator, exprs.getKey(), expr.getCols(), index, sources)){
+						sources.addAll(allInputs);
+						return sources;
+					}
+				}
+			}
+		}
+		return sources;
+	}
+
+	private static void add(Map<Integer, List<ExprNodeDesc>> exprsByParent, int parent, List<ExprNodeDesc> exprs){
+		if (exprs == null){
+			return;
+		}
+		if (!exprsByParent.containsKey(parent)){
+			exprsByParent.put(parent, new ArrayList<ExprNodeDesc>());
+		}
+		exprsByParent.get(parent).addAll(exprs);
+	}
+
+	/**
+	 * Adds the base columns of columns output by the operator's parent
+	 * @return false if any of them could not be found
+	 */
+	private static boolean resolve(Operator<?> operator, int parentIndex, Collection<String> columns, Index index, Set<String> sources){
+		if (operator.getParentOperators() == null || operator.getParentOperators().size() <= parentIndex){
+			return columns.isEmpty();
+		}
+		for (String column : columns){
+			Dependency dependency = dependency(operator.getParentOperators().get(parentIndex), column, index);
+			if (dependency == null){
+				return false;
+			}
+			addBaseColumns(dependency, sources);
+		}
+		return true;
+	}
+
+	static Dependency dependency(Operator<?> operator, String column, Index index){
+		if (operator == null || operator.getSchema() == null){
+			return null;
+		}
+		for (ColumnInfo info : operator.getSchema().getSignature()){
+			if (info.getInternalName().equals(column)){
+				Dependency dependency = index.getDependency(operator, info);
+				// Filters added by predicate push down come after the lineage was worked out,
+				// they pass their input straight through
+				if (dependency == null && operator instanceof FilterOperator && operator.getParentOperators().size() == 1){
+					return dependency(operator.getParentOperators().get(0), column, index);
+				}
+				return dependency;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * The operators of every map reduce and local task, each once
+	 */
+	private static List<Operator<?>> allOperators(List<Task<? extends Serializable>> tasks){
+		List<Operator<?>> toVisit = new ArrayList<>();
+		for (Task<? extends Serializable> task : tasks){
+			if (task.getWork() instanceof MapredWork){
+				toVisit.addAll(((MapredWork) task.getWork()).getAllOperators());
+			} else if (task.getWork() instanceof MapredLocalWork){
+				toVisit.addAll(((MapredLocalWork) task.getWork()).getAliasToWork().values());
+			}
+		}
+		List<Operator<?>> operators = new ArrayList<>();
+		Map<Operator<?>, Boolean> seen = new IdentityHashMap<>();
+		while (!toVisit.isEmpty()){
+			Operator<?> operator = toVisit.remove(toVisit.size() - 1);
+			if (seen.put(operator, Boolean.TRUE) != null){
+				continue;
+			}
+			operators.add(operator);
+			if (operator.getChildOperators() != null){
+				toVisit.addAll(operator.getChildOperators());
+			}
+		}
+		return operators;
+	}
+
+	private static void addBaseColumns(Dependency dependency, Set<String> sources){
+		for (BaseColumnInfo base : dependency.getBaseCols()){
+			org.apache.hadoop.hive.metastore.api.Table table = base.getTabAlias().getTable();
+			// No column for things like count(*), which depend on the whole table
+			sources.add("hcat:" + table.getDbName() + "." + table.getTableName() + "."
+					+ (base.getColumn() != null ? base.getColumn().getName() : "*"));
+		}
+	}
+
+	/**
+	 * Hive keeps the index of the last statement compiled but only uses it internally
+	 */
+	static Index index(LineageState state){
+		try {
+			Field field = LineageState.class.getDeclaredField("index");
+			field.setAccessible(true);
+			return (Index) field.get(state);
+		} catch (NoSuchFieldException | IllegalAccessException e) {
+			return null;
+		}
+	}
+
+	private static Table outputTable(Set<WriteEntity> outputs, String name){
+		for (WriteEntity output : outputs){
+			Table table = output.getTable();
+			if (table != null && (table.getDbName() + "." + table.getTableName()).equalsIgnoreCase(name)){
+				return table;
+			}
+		}
+		return null;
+	}
+
+	private static String tableId(Table table){
+		return "hcat:" + table.getDbName() + "." + table.getTableName();
+	}
+
+	private static List<Task<? extends Serializable>> allTasks(List<Task<? extends Serializable>> rootTasks){
+		List<Task<? extends Serializable>> tasks = new ArrayList<>();
+		Map<Task<?>, Boolean> seen = new IdentityHashMap<>();
+		List<Task<? extends Serializable>> toVisit = new ArrayList<>(rootTasks);
+		while (!toVisit.isEmpty()){
+			Task<? extends Serializable> task = toVisit.remove(toVisit.size() - 1);
+			if (seen.put(task, Boolean.TRUE) != null){
+				continue;
+			}
+			tasks.add(task);
+			if (task.getChildTasks() != null){
+				toVisit.addAll(task.getChildTasks());
+			}
+			if (task instanceof ConditionalTask){
+				toVisit.addAll(((ConditionalTask) task).getListTasks());
+			}
+		}
+		return tasks;
+	}
+}
@@ -1,42 +1,30 @@
 package batch_build.mojo;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.net.MalformedURLException;
-import java.net.URL;
-import java.net.URLClassLoader;
-import java.sql.SQLException;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import net.sf.corn.cps.CPScanner;
-import net.sf.corn.cps.ResourceFilter;
 
 import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.IOUtils;
-import org.apache.commons.lang.StringUtils;
-import org.apache.hadoop.hive.cli.CliDriver;
-import org.apache.hadoop.hive.cli.CliSessionState;
-import org.apache.hadoop.hive.conf.HiveConf;
-import org.apache.hadoop.hive.metastore.HiveMetaStoreClient;
-import org.apache.hadoop.hive.metastore.api.Database;
-import org.apache.hadoop.hive.metastore.api.FieldSchema;
-import org.apache.hadoop.hive.metastore.api.InvalidObjectException;
-import org.apache.hadoop.hive.metastore.api.MetaException;
-import org.apache.hadoop.hive.metastore.api.Table;
-import org.apache.hadoop.hive.ql.session.SessionState;
-import org.apache.hive.hcatalog.common.HCatUtil;
+import org.apache.maven.artifact.Artifact;
 import org.apache.maven.artifact.DependencyResolutionRequiredException;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
@@ -45,26 +33,26 @@ import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
 import org.apache.maven.plugins.annotations.ResolutionScope;
 import org.apache.maven.project.MavenProject;
-import org.apache.thrift.TException;
-import org.apache.velocity.Template;
-import org.apache.velocity.VelocityContext;
-import org.apache.velocity.app.VelocityEngine;
-import org.apache.velocity.runtime.RuntimeConstants;
-import org.apache.velocity.runtime.resource.loader.ClasspathResourceLoader;
 
 import batch_build.common.model.BatchModel;
+import batch_build.common.model.SourceStore;
 import batch_build.common.model.resources.FileLocationResource;
 import batch_build.common.model.resources.HCatResource;
 import batch_build.common.model.resources.Resource;
-import batch_build.common.model.resources.HCatResource.HCatColumn;
+import batch_build.common.model.tasks.CompactGraph;
+import batch_build.common.model.tasks.CriticalPath;
+import batch_build.common.model.tasks.DagAnalysis;
+import batch_build.common.model.tasks.DependencyDiff;
+import batch_build.common.model.tasks.DependencyOptimizer;
 import batch_build.common.model.tasks.HiveTask;
-import batch_build.common.model.tasks.LinkedTask;
 import batch_build.common.model.tasks.PigTask;
+import batch_build.common.model.tasks.RuntimeHistory;
 import batch_build.common.model.tasks.Task;
-import batch_build.mojo.utils.TreeNode;
+import batch_build.common.utils.ContentHasher;
+import batch_build.mojo.daemon.DaemonClient;
+import batch_build.mojo.pig.PigExplainer;
 
-import com.google.common.collect.ArrayListMultimap;
-import com.google.common.collect.Multimap;
+import com.fasterxml.jackson.databind.ObjectMapper;
 
 @Mojo(requiresProject = true, name = "compile", defaultPhase = LifecyclePhase.COMPILE, requiresDependencyResolution = ResolutionScope.COMPILE)
 public class CompileMojo extends AbstractMojo {
@@ -77,15 +65,121 @@ public class CompileMojo extends AbstractMojo {
 	@Parameter(defaultValue = "${project.build.directory}/docs", readonly = true, required = true)
 	private File reportDir;
 	
+	/**
+	 * Number of report pages rendered concurrently
+	 */
+	@Parameter(property = "batch.reportThreads", defaultValue = "4")
+	private int reportThreads;
+	
 	@Parameter(defaultValue = "${project.build.directory}/model.json", readonly = true, required = true)
 	private File modelFile;
 	
+	/**
+	 * Format the model is written in, JSON or SMILE (binary json)
+	 */
+	@Parameter(property = "batch.modelFormat", defaultValue = "JSON")
+	private BatchModel.Format modelFormat;
+	
+	/**
+	 * Keep script and DDL sources as deduplicated blobs next to the model, with the
+	 * model only holding their hashes
+	 */
+	@Parameter(property = "batch.externalSources", defaultValue = "false")
+	private boolean externalSources;
+	
+	/**
+	 * Recorded task runtimes, json of task name to seconds. When present the critical
+	 * path and slack of every task is worked out and added to the model
+	 */
+	@Parameter(property = "batch.runtimeHistory", defaultValue = "${basedir}/runtime-history.json")
+	private File runtimeHistoryFile;
+	
+	/**
+	 * Link the tasks starting from the previous model, only redoing the part of the graph
+	 * around added, removed or changed tasks
+	 */
+	@Parameter(property = "batch.incrementalDeps", defaultValue = "true")
+	private boolean incrementalDeps;
+	
+	@Parameter(defaultValue = "${project.build.directory}/model-diff.json", readonly = true, required = true)
+	private File modelDiffFile;
+	
+	@Parameter(defaultValue = "${project.build.directory}/dag-analysis.json", readonly = true, required = true)
+	private File dagAnalysisFile;
+	
+	/**
+	 * Time taken and memory allocated by each phase of the build, DDL file and script. Run maven
+	 * with MAVEN_OPTS=-XX:StartFlightRecording=... to get the same as flight recorder events
+	 */
+	@Parameter(defaultValue = "${project.build.directory}/build-profile.json", readonly = true, required = true)
+	private File buildProfileFile;
+	
 	@Parameter(defaultValue = "${basedir}/tasks", readonly = true, required = true)
 	private File tasksDir;
 	
 	@Parameter(defaultValue = "${basedir}/tables", readonly = true, required = true)
 	private File tablesDir;
 	
+	/**
+	 * Dependencies, as groupId:artifactId, whose tables/ DDL is used along with the project's own
+	 */
+	@Parameter(property = "batch.tableArtifacts")
+	private List<String> tableArtifacts;
+	
+	@Parameter(defaultValue = "${project.build.directory}/table-index.json", readonly = true, required = true)
+	private File tableIndexFile;
+	
+	@Parameter(defaultValue = "${project.build.directory}/explain-cache.json", readonly = true, required = true)
+	private File explainCacheFile;
+	
+	/**
+	 * Reuse the sources/sinks of scripts whose text, table DDL and hive config are unchanged
+	 */
+	@Parameter(property = "batch.explainCache", defaultValue = "true")
+	private boolean useExplainCache;
+	
+	/**
+	 * Number of scripts explained concurrently, each on its own hive session
+	 */
+	@Parameter(property = "batch.explainThreads", defaultValue = "1")
+	private int explainThreads;
+	
+	@Parameter(defaultValue = "${project.build.directory}/metastore-snapshot", readonly = true, required = true)
+	private File metastoreSnapshotDir;
+	
+	/**
+	 * Restore the metastore from a snapshot instead of re-running the table DDL when it is unchanged
+	 */
+	@Parameter(property = "batch.metastoreSnapshot", defaultValue = "true")
+	private boolean useMetastoreSnapshot;
+	
+	/**
+	 * Explain scripts in a background daemon that keeps hive initialised between builds
+	 */
+	@Parameter(property = "batch.daemon", defaultValue = "false")
+	private boolean useDaemon;
+	
+	@Parameter(defaultValue = "${project.build.directory}/batch-daemon", readonly = true, required = true)
+	private File daemonDir;
+	
+	/**
+	 * Minutes the daemon stays alive without any requests
+	 */
+	@Parameter(property = "batch.daemonIdleTimeout", defaultValue = "180")
+	private int daemonIdleTimeout;
+	
+	/**
+	 * Extra jvm arguments for the daemon, e.g. -Xmx2g
+	 */
+	@Parameter(property = "batch.daemonJvmArgs", defaultValue = "")
+	private String daemonJvmArgs;
+	
+	@Parameter(defaultValue = "${plugin.artifacts}", readonly = true, required = true)
+	private List<Artifact> pluginArtifacts;
+	
+	@Parameter(defaultValue = "${plugin.pluginArtifact}", readonly = true, required = true)
+	private Artifact pluginArtifact;
+	
 	@Parameter(defaultValue = "${project}", required=true)
 	private MavenProject project;
 
@@ -93,247 +187,463 @@ public class CompileMojo extends AbstractMojo {
 	private BatchModel model;
 	
 	private List<Task> unlinkedTasks;
+	
+	private ExplainCache explainCache;
+	
+	private ScriptExplainer explainer;
+	
+	private PigExplainer pigExplainer;
+	
+	private SourceStore sourceStore;
+	
+	private TableDdl tableDdl;
+	
+	// The task graph of the last model written, null to link from scratch. Held compactly as
+	// it is kept through explaining, when memory is tightest
+	private CompactGraph previousGraph;
+	
+	// Only when explaining in this jvm
+	private HiveEnvironment hive;
+	
+	// Scripts that failed to explain since the last compile
+	private final Set<String> failedScripts = new TreeSet<>();
+	
+	// Of the last compile or update, written out with the rest of the outputs
+	private BuildProfile profile;
 
 	public void execute() throws MojoExecutionException {
 		try {
+			compile(useDaemon);
+			writeOutputs();
+		} catch (Throwable e) {
+			throw new MojoExecutionException("Problem running mojo", e);
+		} finally {
+			shutdown();
+		}
+	}
+
+	/**
+	 * Sets up hive and explains every script
+	 * @param daemon explain in the compile daemon rather than in this jvm
+	 */
+	void compile(boolean daemon) throws Throwable {
+		profile = new BuildProfile();
+		try (BuildProfile.Timer timer = profile.phase("setupMavenResources")) {
 			setupMavenResources();
 			clean();
-			setupClassLoader();
-			setupHadoop(tmpDir);
-			model.getResources().putAll(resourcesToMap(createHiveTables()));
+		}
+		try (BuildProfile.Timer timer = profile.phase("readPreviousModel")) {
+			previousGraph = readPreviousGraph();
+		}
+		HiveEnvironment.setupClassLoader(classpathElements);
+		try (BuildProfile.Timer timer = profile.phase("discoverTables")) {
+			tableDdl = TableDdl.discover(tablesDir, tableArtifactFiles(project, tableArtifacts), tableIndexFile, getLog());
+		}
+		getLog().info("Tables: " + tableDdl.getNames().size() + " DDL files, " + tableDdl.getHashed() + " hashed");
+		if (externalSources){
+			sourceStore = SourceStore.forModel(modelFile);
+		}
+		if (daemon){
+			try (BuildProfile.Timer timer = profile.phase("setupDaemon")) {
+				setupDaemon();
+			}
+		} else {
+			try (BuildProfile.Timer timer = profile.phase("setupHadoop")) {
+				HiveEnvironment.setupHadoop(tmpDir);
+			}
+			hive = new HiveEnvironment(tableDdl, useMetastoreSnapshot ? metastoreSnapshotDir : null);
+			hive.setProfile(profile);
+			try (BuildProfile.Timer timer = profile.phase("createHiveTables")) {
+				model.getResources().putAll(resourcesToMap(hive.createHiveTables()));
+			}
+			explainer = hive;
+			setupExplainCache(hive.environmentHash());
+		}
+		if (sourceStore != null){
+			for (Resource resource : model.getResources().values()){
+				if (resource instanceof HCatResource){
+					((HCatResource) resource).externalizeSource(sourceStore);
+				}
+			}
+		}
+		pigExplainer = new PigExplainer(model.getResources().values());
+		try (BuildProfile.Timer timer = profile.phase("parseTasks")) {
 			parseTasks(tasksDir);
-			model.setTasks(optimizeDeps(unlinkedTasks));
-			generateReports();
-			model.writeModel(modelFile);
-		} catch (Throwable e) {
-			throw new MojoExecutionException("Problem running mojo", e);
+			addFileResources();
+		}
+		getLog().info("Explain cache: " + explainCache.getHits() + " hits, " + explainCache.getMisses() + " misses"
+				+ (pigExplainer.getStarted() > 0 ? ", " + pigExplainer.getStarted() + " pig servers started" : ""));
+		if (useExplainCache){
+			explainCache.write(explainCacheFile);
 		}
 	}
-	
-	private void setupMavenResources() throws DependencyResolutionRequiredException, IOException{
-		classpathElements = project.getCompileClasspathElements();
-		FileUtils.copyDirectory(tasksDir, new File(project.getBuild().getOutputDirectory(), "tasks"));
-		FileUtils.copyDirectory(tablesDir, new File(project.getBuild().getOutputDirectory(), "tables"));
+
+	/**
+	 * Links the explained tasks and writes the reports and model
+	 */
+	void writeOutputs() throws Exception {
+		try (BuildProfile.Timer timer = profile.phase("optimizeDeps")) {
+			if (previousGraph != null){
+				DependencyDiff diff = new DependencyDiff();
+				model.setTasks(DependencyOptimizer.optimizeDeps(unlinkedTasks, previousGraph.toLinkedTasks(), diff));
+				getLog().info("Dependencies: " + diff.getRelinkedTasks().size() + " of " + unlinkedTasks.size() + " tasks relinked, "
+						+ diff.getAddedEdges().size() + " edges added, " + diff.getRemovedEdges().size() + " removed");
+				new ObjectMapper().writer().withDefaultPrettyPrinter().writeValue(modelDiffFile, diff);
+			} else {
+				model.setTasks(DependencyOptimizer.optimizeDeps(unlinkedTasks));
+				modelDiffFile.delete();
+			}
+			// Each explained task has its own copy of every resource id and column name
+			model.intern();
+		}
+		if (incrementalDeps){
+			previousGraph = CompactGraph.of(model);
+		}
+		DagAnalysis analysis;
+		try (BuildProfile.Timer timer = profile.phase("analyzeGraph")) {
+			Map<String, Double> durations = RuntimeHistory.read(runtimeHistoryFile);
+			if (!durations.isEmpty()){
+				double makespan = CriticalPath.analyze(model.getTasks(), durations);
+				getLog().info("Critical path: " + makespan + "s");
+			}
+			analysis = DagAnalysis.analyze(model.getTasks());
+			getLog().info("Graph: " + analysis.getDepth() + " levels, up to " + analysis.getMaxParallelism() + " tasks at once"
+					+ (analysis.getHotResources().isEmpty() ? "" : ", " + analysis.getHotResources().get(0).getResource()
+							+ " would leave " + analysis.getHotResources().get(0).getDepthWithout() + " levels without its ordering"));
+			new ObjectMapper().writer().withDefaultPrettyPrinter().writeValue(dagAnalysisFile, analysis);
+		}
+		if (sourceStore != null){
+			model.externalizeSources(sourceStore);
+		}
+		try (BuildProfile.Timer timer = profile.phase("generateReports")) {
+			generateReports(analysis);
+		}
+		try (BuildProfile.Timer timer = profile.phase("writeModel")) {
+			model.writeModel(modelFile, modelFormat);
+		}
+		writeProfile();
 	}
-	
-	private void generateReports() throws Exception {
-		// recreate tree structure for tasks
-		TreeNode<String> tasksRoot = new TreeNode<String>(null, "Tasks");
-		for (LinkedTask t : model.getTasks()){
-			TreeNode<String> node = tasksRoot;
-			String taskName = t.getTask().getName();
-			String[] pathComponents = taskName.split("/");
-			for (String pathComponent : pathComponents){
-				node = node.getOrCreateChild(pathComponent);
+
+	private void writeProfile() throws IOException {
+		profile.write(buildProfileFile);
+		StringBuilder slowest = new StringBuilder();
+		int shown = 0;
+		for (BuildProfile.Entry script : profile.slowestScripts()){
+			// Cached ones took no time worth mentioning
+			if (script.getDetail() == null && shown++ < 5){
+				slowest.append(slowest.length() == 0 ? ", slowest scripts: " : ", ")
+						.append(script.getName()).append(" ").append(script.getMillis()).append("ms");
 			}
-			node.setItem(UrlHelper.INSTANCE.urlFromTaskName(taskName));
 		}
-		
-		// create tree structure for tables
-		TreeNode<String> tablesRoot = new TreeNode<String>(null, "HCat Tables");
-		for (Resource r : model.getResources().values()){
-			if (r instanceof HCatResource){
-				HCatResource table = (HCatResource) r;
-				TreeNode<String> dbNode = tablesRoot.getOrCreateChild(table.getDbName());
-				dbNode.addChild(new TreeNode<>(UrlHelper.INSTANCE.urlFromResource(table), table.getTableName()));
+		getLog().info("Build profile: " + profile.getMillis() + "ms" + slowest);
+	}
+
+	/**
+	 * Brings the explained tasks up to date with files changed under the tasks and tables
+	 * dirs since {@link #compile}, on the hive that is already running. Only changed scripts,
+	 * and scripts reading or writing tables of changed DDL, are explained again. A script that
+	 * no longer explains keeps its last good version until it is fixed.
+	 */
+	void update(Collection<File> changed) throws Exception {
+		profile = new BuildProfile();
+		if (hive != null){
+			hive.setProfile(profile);
+		}
+		Set<String> explain = new HashSet<>();
+		Set<String> changedDdl = new TreeSet<>();
+		boolean explainAll = false;
+		for (File file : changed){
+			String ddlName = relativePath(tablesDir, file);
+			String taskName = relativePath(tasksDir, file);
+			if (ddlName != null){
+				changedDdl.add(ddlName);
+			} else if (taskName != null){
+				// The whole dir when events were lost, the explain cache keeps that cheap
+				explainAll |= taskName.isEmpty();
+				explain.add(taskName);
 			}
 		}
-		tablesRoot.sortChildren(true);
-		
-		Multimap<String, Task> readUsage = ArrayListMultimap.create();
-		Multimap<String, Task> writeUsage = ArrayListMultimap.create();
-		
-		// Find Usages
-		for (Task t : unlinkedTasks){
-			for (String r : t.getSinkResources()){
-				writeUsage.put(r, t);
+		if (!changedDdl.isEmpty()){
+			explain.addAll(updateTables(changedDdl));
+			// They may have been waiting on a table
+			explain.addAll(failedScripts);
+		}
+
+		Map<String, Task> previous = new HashMap<>();
+		for (Task task : unlinkedTasks){
+			previous.put(task.getName(), task);
+		}
+		List<File> scripts = new ArrayList<>();
+		findScripts(tasksDir, scripts);
+		List<Task> tasks = new ArrayList<>();
+		Set<String> names = new HashSet<>();
+		int explained = 0;
+		for (File script : scripts){
+			String name = taskName(script);
+			names.add(name);
+			Task task = previous.get(name);
+			if (explainAll || explain.contains(name) || (task == null && !failedScripts.contains(name))){
+				explained++;
+				try {
+					task = explainTask(script);
+					failedScripts.remove(name);
+				} catch (Exception e) {
+					failedScripts.add(name);
+					getLog().error(name + (task != null ? " (keeping the last good version)" : "") + ": " + e.getMessage()
+							+ (e.getCause() != null ? ": " + e.getCause().getMessage() : ""));
+				}
 			}
-			for (String r : t.getSourceResources()){
-				readUsage.put(r, t);
+			if (task != null){
+				tasks.add(task);
 			}
 		}
-		
-		reportDir.mkdirs();
-		File reportTablesDir = new File(reportDir, "tables");
-		reportTablesDir.mkdirs();
-		File reportTasksDir = new File(reportDir, "tasks");
-		reportTasksDir.mkdirs();
-		VelocityEngine ve = new VelocityEngine();
-		ve.setProperty(RuntimeConstants.RESOURCE_LOADER, "classpath");
-		ve.setProperty("classpath.resource.loader.class", ClasspathResourceLoader.class.getName());
-		ve.setProperty("runtime.log.logsystem.class", "org.apache.velocity.runtime.log.NullLogSystem");
-		
-		// Tables
-		Template tableTemplate = ve.getTemplate("templates/tableDoc.vm");
-		for (Resource r : model.getResources().values()){
-			if (r instanceof HCatResource){
-				HCatResource resource = (HCatResource) r;
-				String fileName = resource.getDbName() + "/" + resource.getTableName() + ".html";
-				VelocityContext context = new VelocityContext();
-				context.put("urlHelper", UrlHelper.INSTANCE);
-				context.put("table", r);
-				context.put("taskTree", tasksRoot);
-				context.put("tablesTree", tablesRoot);
-				context.put("baseDir", "../../");
-				context.put("readUsages", readUsage.get(resource.getUniqueIdentifier()));
-				context.put("writeUsages", writeUsage.get(resource.getUniqueIdentifier()));
-				File file = new File(reportTablesDir, fileName);
-				file.getParentFile().mkdirs();
-				FileWriter writer = new FileWriter(file);
-				tableTemplate.merge(context, writer);
-				writer.close();
+		failedScripts.retainAll(names);
+		unlinkedTasks = tasks;
+
+		Iterator<String> ids = model.getResources().keySet().iterator();
+		while (ids.hasNext()){
+			if (ids.next().startsWith("file:")){
+				ids.remove();
 			}
 		}
-		
-		// Tasks
-		Template taskTemplate = ve.getTemplate("templates/taskDoc.vm");
-		for (LinkedTask task : model.getTasks()){
-			List<Resource> sinkResources = new ArrayList<>();
-			for (String resourceId : task.getTask().getSinkResources()){
-				sinkResources.add(model.getResources().get(resourceId));
+		addFileResources();
+		if (useExplainCache){
+			explainCache.write(explainCacheFile);
+		}
+		getLog().info("Explained " + explained + " of " + tasks.size() + " scripts"
+				+ (failedScripts.isEmpty() ? "" : ", failing: " + failedScripts));
+	}
+
+	/**
+	 * Runs changed DDL again and swaps its tables in the model
+	 * @param changedDdl db/file names, or db dirs
+	 * @return names of the tasks that used the tables before or use them now
+	 */
+	private Set<String> updateTables(Set<String> changedDdl) throws Exception {
+		TableDdl previousDdl = tableDdl;
+		tableDdl = TableDdl.discover(tablesDir, tableArtifactFiles(project, tableArtifacts), tableIndexFile, getLog());
+		Set<String> fileNames = new TreeSet<>();
+		for (String name : changedDdl){
+			for (TableDdl ddl : Arrays.asList(previousDdl, tableDdl)){
+				for (String fileName : ddl.getNames()){
+					if (name.isEmpty() || fileName.equals(name) || fileName.startsWith(name + "/")){
+						fileNames.add(fileName);
+					}
+				}
 			}
-			List<Resource> sourceResources = new ArrayList<>();
-			for (String resourceId : task.getTask().getSourceResources()){
-				sourceResources.add(model.getResources().get(resourceId));
+		}
+		if (fileNames.isEmpty()){
+			return new HashSet<>();
+		}
+
+		Set<String> affected = new HashSet<>();
+		for (String table : hive.tablesCreatedBy(fileNames)){
+			affected.add("hcat:" + table);
+		}
+		model.getResources().keySet().removeAll(affected);
+		for (HCatResource table : hive.recreateTables(tableDdl, fileNames)){
+			if (sourceStore != null){
+				table.externalizeSource(sourceStore);
 			}
-			String fileName = task.getTask().getName() + ".html";
-			String baseDir = StringUtils.repeat("../", fileName.split("/").length);
-			VelocityContext context = new VelocityContext();
-			context.put("urlHelper", UrlHelper.INSTANCE);
-			context.put("task", task);
-			context.put("taskTree", tasksRoot);
-			context.put("tablesTree", tablesRoot);
-			context.put("baseDir", baseDir);
-			context.put("sourceResources", sourceResources);
-			context.put("sinkResources", sinkResources);
-			File htmlFile = new File(reportTasksDir, fileName);
-			htmlFile.getParentFile().mkdirs();
-			FileWriter writer = new FileWriter(htmlFile);
-			taskTemplate.merge(context, writer);
-			writer.close();
-			
+			model.getResources().put(table.getUniqueIdentifier(), table);
+			affected.add(table.getUniqueIdentifier());
 		}
-		
-		// TaskGraph
-		Template graphTemplate = ve.getTemplate("templates/taskGraph.vm");
-		VelocityContext context = new VelocityContext();
-		context.put("urlHelper", UrlHelper.INSTANCE);
-		context.put("tasks", model.getTasks());
-		context.put("taskTree", tasksRoot);
-		context.put("tablesTree", tablesRoot);
-		context.put("baseDir", "");
-		FileWriter writer = new FileWriter(new File(reportDir, "index.html"));
-		graphTemplate.merge(context, writer);
-		writer.close();
+		getLog().info("Recreated " + affected.size() + " tables from " + fileNames);
+
+		// Results for other scripts still hold but the next compile starts over anyway
+		explainCache = ExplainCache.empty(explainEnvironment(hive.environmentHash()));
+		pigExplainer.shutdown();
+		pigExplainer = new PigExplainer(model.getResources().values());
+
+		Set<String> tasks = new HashSet<>();
+		for (Task task : unlinkedTasks){
+			if (!Collections.disjoint(task.getSourceResources(), affected)
+					|| !Collections.disjoint(task.getSinkResources(), affected)){
+				tasks.add(task.getName());
+			}
+		}
+		return tasks;
 	}
 
+	File getTasksDir(){
+		return tasksDir;
+	}
 
-	private void clean() throws IOException {
-		model = new  BatchModel();
-		unlinkedTasks = new ArrayList<>();
-		FileUtils.deleteDirectory(tmpDir);
-		FileUtils.deleteDirectory(reportDir);
+	File getTablesDir(){
+		return tablesDir;
+	}
+
+	void shutdown(){
+		if (pigExplainer != null){
+			pigExplainer.shutdown();
+		}
 	}
 	
-	
-	private void setupClassLoader() throws MalformedURLException, ClassNotFoundException {
-		// Dirty hack to prevent against class not found error caused by mavens classloaders
-		// being shutdown before the shutdownhooks have been run
-		Class.forName("org.apache.hadoop.util.ShutdownHookManager$2");
-		// These are only for hive/pig 0.12
-		Class.forName("com.google.common.cache.LocalCache$Values");
-		Class.forName("com.google.common.cache.LocalCache$ValueIterator");
-		Class.forName("com.google.common.cache.LocalCache$WriteThroughEntry");
-		
-		URL[] urls = new URL[classpathElements.size()];
-		for (int i = 0; i < classpathElements.size(); i++) {
-			urls[i] = new File(classpathElements.get(i)).toURI().toURL();
+	private CompactGraph readPreviousGraph(){
+		if (!incrementalDeps || !modelFile.isFile()){
+			return null;
+		}
+		try {
+			return CompactGraph.of(BatchModel.read(modelFile, false));
+		} catch (IOException e) {
+			getLog().info("Linking all tasks, the previous model is unreadable: " + e.getMessage());
+			return null;
 		}
-		URLClassLoader cl = URLClassLoader.newInstance(urls, Thread.currentThread().getContextClassLoader());
-		Thread.currentThread().setContextClassLoader(cl);
 	}
 	
+	private void setupMavenResources() throws DependencyResolutionRequiredException, IOException{
+		classpathElements = project.getCompileClasspathElements();
+		FileUtils.copyDirectory(tasksDir, new File(project.getBuild().getOutputDirectory(), "tasks"));
+		FileUtils.copyDirectory(tablesDir, new File(project.getBuild().getOutputDirectory(), "tables"));
+	}
 	
-	static void setupHadoop(File tmpDir) throws IOException {
-		tmpDir.mkdirs();
-		
-		//System.setProperty("hadoop.bin.path","");
-		System.setProperty("target.tmp", tmpDir.getAbsolutePath());
-		System.setProperty("pig.temp.dir", tmpDir.getAbsolutePath());
-		System.setProperty("derby.stream.error.file", tmpDir.getAbsolutePath()
-				+ "/derby.log");
-		System.setProperty("hive.semantic.analyzer.hook", HiveExplainHook.class.getName());
-
-		File hadoopHome = new File(tmpDir, "hadoop");
-		File hadoopBin = new File(hadoopHome, "bin");
-		hadoopBin.mkdirs();
-		System.setProperty("hadoop.home.dir", hadoopHome.getAbsolutePath());
-		FileUtils.copyInputStreamToFile(Thread.currentThread()
-				.getContextClassLoader().getResourceAsStream("winutils.exe"),
-				new File(hadoopBin, "winutils.exe"));
+	private void generateReports(DagAnalysis analysis) throws Exception {
+		ReportGenerator reports = new ReportGenerator(reportDir, reportThreads);
+		reports.generate(model, unlinkedTasks, analysis);
+		getLog().info("Reports: " + reports.getRendered() + " pages rendered, " + reports.getUnchanged() + " unchanged");
 	}
 
 
-	private List<HCatResource> createHiveTables() throws IOException,
-			InvalidObjectException, MetaException, TException, SQLException {
-		HiveMetaStoreClient hiveClient = HCatUtil.getHiveClient(new HiveConf(
-				CompileMojo.class));
-		SessionState.start(createNewSessionState());
-		CliDriver hiveCli = new CliDriver();
-		List<URL> tableUrls = CPScanner.scanResources(new ResourceFilter().packageName("tables.*").resourceName("*.hql"));
-		Set<String> dbsCreated = new HashSet<>();
-		Map<String,String> tableNameToSource = new HashMap<>();
-		List<String> badFiles = new ArrayList<>();
-		for (URL url : tableUrls) {
-			String fileName = url.getFile();
-			System.out.println(fileName);
-			String[] pathComponents = fileName.split("/");
-			String dbName = pathComponents[pathComponents.length -2];
-			if (dbsCreated.add(dbName)){
-				hiveClient.createDatabase(new Database(dbName, null, null, null));
+	private void setupDaemon() throws IOException, InterruptedException{
+		List<String> classpath = pluginClasspath();
+		// Any change to a jar or the tables needs a new daemon
+		ContentHasher key = new ContentHasher().update(tableDdl.getHash()).update(daemonJvmArgs)
+				.update(classpathHash(classpath));
+		List<String> jvmArgs = new ArrayList<>();
+		if (daemonJvmArgs != null && !daemonJvmArgs.trim().isEmpty()){
+			jvmArgs.addAll(Arrays.asList(daemonJvmArgs.trim().split("\\s+")));
+		}
+		DaemonClient daemon = DaemonClient.connect(daemonDir, key.hex(), tableIndexFile, classpath, jvmArgs, daemonIdleTimeout, getLog());
+		model.getResources().putAll(resourcesToMap(daemon.getTables()));
+		explainer = daemon;
+		setupExplainCache(daemon.getEnvironment());
+	}
+	
+	/**
+	 * Files of the dependencies sharing table DDL, in the order given
+	 */
+	static List<File> tableArtifactFiles(MavenProject project, List<String> tableArtifacts){
+		List<File> files = new ArrayList<>();
+		if (tableArtifacts == null){
+			return files;
+		}
+		for (String key : tableArtifacts){
+			Artifact found = null;
+			for (Artifact artifact : project.getArtifacts()){
+				if (key.trim().equals(artifact.getGroupId() + ":" + artifact.getArtifactId())){
+					found = artifact;
+				}
 			}
-			System.out.println("Running " + fileName);
-			SessionState.start(createNewSessionState());
-			HiveExplainHook.reset();
-			if (hiveCli.processReader(new BufferedReader(new InputStreamReader(url.openStream()))) != 0) {
-				badFiles.add(fileName);
+			if (found == null || found.getFile() == null){
+				throw new RuntimeException("Table artifact " + key + " is not a resolved dependency");
 			}
-			String source = IOUtils.toString(url.openStream());
-			for (String tableName : HiveExplainHook.getTablesCreated()){
-				tableNameToSource.put(tableName, source);
+			files.add(found.getFile());
+		}
+		return files;
+	}
+	
+	private void setupExplainCache(String hiveEnvironment){
+		String environment = explainEnvironment(hiveEnvironment);
+		if (useExplainCache){
+			explainCache = ExplainCache.load(explainCacheFile, environment, getLog());
+		} else {
+			explainCache = ExplainCache.empty(environment);
+		}
+	}
+
+	/**
+	 * The hive environment along with the classpath, which holds the explain code itself,
+	 * hive and the project's udfs, so upgrading any of them starts the cache over
+	 */
+	private String explainEnvironment(String hiveEnvironment){
+		return new ContentHasher().update(hiveEnvironment).update(classpathHash(pluginClasspath())).hex();
+	}
+
+	/**
+	 * The plugin and project classpath. The plugin realm leaves out anything maven itself
+	 * provides (e.g. slf4j) so it is built from the resolved plugin artifacts instead
+	 */
+	private List<String> pluginClasspath(){
+		List<String> classpath = new ArrayList<>();
+		classpath.add(pluginArtifact.getFile().getAbsolutePath());
+		for (Artifact artifact : pluginArtifacts){
+			classpath.add(artifact.getFile().getAbsolutePath());
+		}
+		classpath.addAll(classpathElements);
+		return classpath;
+	}
+
+	/**
+	 * Hash of the classpath, jars by path, time and size. Directories are the project's own
+	 * output and only matter through the tables, which are hashed separately
+	 */
+	private static String classpathHash(List<String> classpath){
+		ContentHasher hasher = new ContentHasher();
+		for (String element : classpath){
+			File file = new File(element);
+			hasher.update(element);
+			if (file.isFile()){
+				hasher.update(Long.toString(file.lastModified())).update(Long.toString(file.length()));
 			}
-			
 		}
-		if (!badFiles.isEmpty()) {
-			throw new RuntimeException("Error creating tables in files "
-					+ badFiles);
-		}
-		List<HCatResource> tables = new ArrayList<>();
-
-		for (String dbName : hiveClient.getAllDatabases()) {
-			for (String tableName : hiveClient.getAllTables(dbName)) {
-				Table table = hiveClient.getTable(dbName, tableName);
-				List<FieldSchema> fields = hiveClient.getFields(dbName,
-						tableName);
-				List<FieldSchema> partitionFields = table.getPartitionKeys();
-				List<HCatColumn> columns = new ArrayList<>();
-				for (FieldSchema field : fields) {
-					columns.add(new HCatColumn(field.getType(),
-							field.getName(), field.getComment(), false));
-				}
-				for (FieldSchema field : partitionFields) {
-					columns.add(new HCatColumn(field.getType(),
-							field.getName(), field.getComment(), true));
+		return hasher.hex();
+	}
+
+
+	private void clean() throws IOException {
+		model = new  BatchModel();
+		unlinkedTasks = new ArrayList<>();
+		FileUtils.deleteDirectory(tmpDir);
+	}
+	
+	
+	private void parseTasks(File dir) throws Throwable{
+		List<File> scripts = new ArrayList<>();
+		findScripts(dir, scripts);
+		if (explainThreads <= 1){
+			for (File script : scripts){
+				unlinkedTasks.add(explainTask(script));
+			}
+			return;
+		}
+		
+		// Hive sessions are per thread so each worker explains with its own session,
+		// results are collected in file order so the model does not depend on scheduling
+		final ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+		ExecutorService executor = Executors.newFixedThreadPool(explainThreads, new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+			
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "batch-explain-" + count.incrementAndGet());
+				thread.setContextClassLoader(classLoader);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		try {
+			List<Future<Task>> futures = new ArrayList<>();
+			for (final File script : scripts){
+				futures.add(executor.submit(new Callable<Task>() {
+					@Override
+					public Task call() throws Exception {
+						return explainTask(script);
+					}
+				}));
+			}
+			for (Future<Task> future : futures){
+				try {
+					unlinkedTasks.add(future.get());
+				} catch (ExecutionException e) {
+					throw e.getCause();
 				}
-				String source = tableNameToSource.get(dbName + "." + tableName);
-				tables.add(new HCatResource(dbName, tableName, table
-						.getParameters().get("comment"), source, columns));
 			}
+		} finally {
+			executor.shutdownNow();
 		}
-		return tables;
 	}
 	
-	private void parseTasks(File dir) throws Throwable{
+	private void findScripts(File dir, List<File> scripts){
 		File[] files = dir.listFiles();
 		if (files == null){
 			return;
@@ -341,169 +651,77 @@ public class CompileMojo extends AbstractMojo {
 		Arrays.sort(files);
 		for (File file : files){
 			if (file.isDirectory()){
-				parseTasks(file);
+				findScripts(file, scripts);
 			} else if (file.isFile()){
-				String taskName = tasksDir.toPath().relativize(file.toPath()).toString().replace("\\", "/");
-				if (file.getName().endsWith(".pig")){
-					//unlinkedTasks.add(explainPigTask(taskName, file));
-				}else if (file.getName().endsWith(".hql")){
-					unlinkedTasks.add(explainHiveTask(taskName, file));
+				if (file.getName().endsWith(".pig") || file.getName().endsWith(".hql")){
+					scripts.add(file);
 				}
 			}
 		}
 	}
-
-	private HiveTask explainHiveTask(String taskName, File hiveScript) throws FileNotFoundException, IOException{
-		System.out.println("Explaining " + taskName);
-		SessionState.start(createNewSessionState());
-		CliDriver hiveCli = new CliDriver();
-		HiveExplainHook.reset();
-		if (hiveCli.processReader(new BufferedReader(new FileReader(hiveScript))) !=0){
-			throw new RuntimeException("Failed to explain hive query");
-		}
-		
-		return new HiveTask(taskName, HiveExplainHook.getSources(), HiveExplainHook.getSinks(), FileUtils.readFileToString(hiveScript));
+	
+	private String taskName(File script){
+		return relativePath(tasksDir, script);
 	}
 	
-//	private PigTask explainPigTask(String taskName, File pigScript) throws Throwable {
-//		System.out.println("Explaining " + taskName);
-//		PigServer pig = new PigServer(ExecType.LOCAL);
-//		try {
-//			pig.registerQuery(FileUtils.readFileToString(pigScript));
-//			LogicalPlanData logicalPlanData = pig.getLogicalPlanData();
-//			List<String> sinks = logicalPlanData.getSinks();
-//			List<String> storeFuncts = logicalPlanData.getStoreFuncs();
-//			Set<String> destResources = new HashSet<>();
-//			String resourceId;
-//			for (int i = 0; i < logicalPlanData.getSinks().size(); i++) {
-//				switch (storeFuncts.get(i)) {
-//				case "org.apache.pig.builtin.PigStorage":
-//					FileLocationResource resource = new FileLocationResource(
-//							sinks.get(i));
-//					model.getResources().put(resource.getUniqueIdentifier(), resource);
-//					resourceId = resource.getUniqueIdentifier();
-//					break;
-//				case "org.apache.hive.hcatalog.pig.HCatStorer":
-//					resourceId = "hcat:" + sinks.get(i);
-//					break;
-//				default:
-//					throw new RuntimeException("Unknown pig storage:"
-//							+ storeFuncts.get(i));
-//				}
-//				assert model.getResources().containsKey(resourceId);
-//				destResources.add(resourceId);
-//			}
-//
-//			List<String> sources = logicalPlanData.getSources();
-//			List<String> loadFuncts = logicalPlanData.getLoadFuncs();
-//			Set<String> sourceResources = new HashSet<>();
-//			for (int i = 0; i < logicalPlanData.getSources().size(); i++) {
-//				switch (loadFuncts.get(i)) {
-//				case "org.apache.pig.builtin.PigStorage":
-//					FileLocationResource resource = new FileLocationResource(
-//							sources.get(i));
-//					model.getResources().put(resource.getUniqueIdentifier(), resource);
-//					resourceId = resource.getUniqueIdentifier();
-//					break;
-//				case "org.apache.hive.hcatalog.pig.HCatLoader":
-//					resourceId = "hcat:" + sources.get(i);
-//					break;
-//				default:
-//					throw new RuntimeException("Unknown pig loader:"
-//							+ loadFuncts.get(i));
-//				}
-//				assert model.getResources().containsKey(resourceId);
-//				sourceResources.add(resourceId);
-//			}			
-//			return new PigTask(taskName, sourceResources,
-//					destResources, FileUtils.readFileToString(pigScript));
-//		} finally {
-//			pig.shutdown();
-//		}
-//	}
-
 	/**
-	 * Work out the best dependencies between the tasks.
-	 * tasks that write resources should depend on anything before them that read or write that resource
-	 * tasks that read resources should depend on tasks before them that write into the resource
+	 * Path of the file within the dir with / separators, empty for the dir itself and null
+	 * for anything outside it
 	 */
-	private List<LinkedTask> optimizeDeps(List<Task> tasks){
-		List<LinkedTask> linkedTasks = new ArrayList<>();
-		// Tracking of resource -> reads and writes
-		Map<String, Set<LinkedTask>> upstreamReads = new HashMap<>();
-		Map<String, LinkedTask> upstreamWrites = new HashMap<>();
-		// Populate reads map with empty sets
-		for (String resource : model.getResources().keySet()){
-			upstreamReads.put(resource, new HashSet<LinkedTask>());
+	private static String relativePath(File dir, File file){
+		Path dirPath = dir.toPath().toAbsolutePath().normalize();
+		Path path = file.toPath().toAbsolutePath().normalize();
+		if (!path.startsWith(dirPath)){
+			return null;
 		}
-		
-		// First pass at calculating deps
-		for (Task task : tasks){
-			LinkedTask lTask = new LinkedTask(task);
-			for(String resource : task.getSourceResources()){
-				LinkedTask upstreamWrite = upstreamWrites.get(resource);
-				if (upstreamWrite !=null){
-					lTask.parents.add(upstreamWrite);
-				}
-			}
-			
-			for(String resource : task.getSinkResources()){
-				LinkedTask upstreamWrite = upstreamWrites.get(resource);
-				if (upstreamWrite !=null){
-					lTask.parents.add(upstreamWrite);
-				}
-				lTask.parents.addAll(upstreamReads.get(resource));
-			}
-			
-			// Setup for next task
-			for (String resource : task.getSourceResources()){
-				upstreamReads.get(resource).add(lTask);
-			}
-			for(String resource : task.getSinkResources()){
-				// We can mark this as the upstream write for the following tasks
-				// Reads can be cleared at this stage as writes trump reads
-				upstreamWrites.put(resource, lTask);
-				upstreamReads.get(resource).clear();
+		return dirPath.relativize(path).toString().replace("\\", "/");
+	}
+	
+	private Task explainTask(File file) throws Exception{
+		String taskName = taskName(file);
+		boolean pig = file.getName().endsWith(".pig");
+		String source = FileUtils.readFileToString(file);
+		String contentHash = pig ? new ContentHasher().update("pig").update(source).hex() : ContentHasher.sha1(source);
+		ExplainResult result;
+		try (BuildProfile.Timer timer = profile.script(taskName)) {
+			result = explainCache.get(contentHash);
+			if (result == null){
+				result = (pig ? pigExplainer : explainer).explain(taskName, source);
+				explainCache.put(contentHash, result);
+			} else {
+				timer.setDetail("cached");
 			}
-			linkedTasks.add(lTask);
 		}
-		
-		// second pass requires removing redundant deps
-		// We can achieve this by testing each dep to see if we can reach it from other dep
-		for (LinkedTask task : linkedTasks){
-			Iterator<LinkedTask> deps = task.parents.iterator();
-			deploop: while (deps.hasNext()){
-				LinkedTask dep = deps.next();
-				// Take a copy to prevent concurrent modification exceptions etc
-				for (LinkedTask t : new ArrayList<>(task.parents)){
-					if (t == dep){
-						continue;
-					}
-					if (t.isDependentOn(dep)){
-						deps.remove();
-						continue deploop;
-					}
-				}
-				
-			}
+		Task task;
+		if (pig){
+			task = new PigTask(taskName, result.getSources(), result.getSinks(), source);
+		} else {
+			task = new HiveTask(taskName, result.getSources(), result.getSinks(), result.getSourcePartitions(),
+					result.getSinkPartitions(), result.getColumnLineage(), source);
 		}
-		return linkedTasks;
+		if (sourceStore != null){
+			// Stored straight away so the text is not held for the rest of the build
+			task.externalizeSource(sourceStore);
+		}
+		return task;
 	}
 	
-
-	private static CliSessionState createNewSessionState() {
-		CliSessionState ss = new CliSessionState(new HiveConf(
-				CompileMojo.class));
-		ss.getConf().set("batch_id", "1000");
-		ss.err = System.err;
-		ss.out = System.err;
-		ss.childErr = System.err;
-		ss.setIsSilent(false);
-		return ss;
+	/**
+	 * Pig scripts can read and write plain file locations, which have no DDL
+	 */
+	private void addFileResources(){
+		for (Task task : unlinkedTasks){
+			Set<String> ids = new TreeSet<>(task.getSourceResources());
+			ids.addAll(task.getSinkResources());
+			for (String id : ids){
+				if (id.startsWith("file:") && !model.getResources().containsKey(id)){
+					FileLocationResource resource = new FileLocationResource(id.substring("file:".length()));
+					model.getResources().put(resource.getUniqueIdentifier(), resource);
+				}
+			}
+		}
 	}
 
-	
-
 	private static <T extends Resource> Map<String, T> resourcesToMap(
 			List<T> resources) {
 		Map<String, T> result = new HashMap<>();
@@ -0,0 +1,167 @@
+package batch_build.mojo;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import lombok.Getter;
+import batch_build.common.model.tasks.LinkedTask;
+
+/**
+ * Runs the task graph, starting every task as soon as all its parents have succeeded
+ * with up to a fixed number running at once. When several tasks are ready the one with
+ * the longest remaining chain (from recorded runtimes) goes first, otherwise model order.
+ * A failed task skips everything downstream of it, unrelated tasks keep running.
+ */
+public class DagExecutor {
+
+	public interface TaskRunner {
+		void run(LinkedTask task) throws Exception;
+	}
+
+	public enum Status { SUCCEEDED, FAILED, SKIPPED }
+
+	@Getter
+	public static class TaskRun {
+		private final String name;
+		private Status status;
+		// Milliseconds from the start of the run
+		private long start;
+		private long duration;
+		private String error;
+
+		private TaskRun(String name) {
+			this.name = name;
+		}
+	}
+
+	private final List<LinkedTask> tasks;
+	private final int threads;
+
+	/**
+	 * @param tasks in dependency order, as held in the model
+	 */
+	public DagExecutor(List<LinkedTask> tasks, int threads) {
+		this.tasks = tasks;
+		this.threads = Math.max(1, threads);
+	}
+
+	/**
+	 * @return a run per task, in the order they finished
+	 */
+	public List<TaskRun> execute(final TaskRunner runner) throws InterruptedException {
+		final int n = tasks.size();
+		Map<LinkedTask, Integer> indexes = new IdentityHashMap<>();
+		List<List<Integer>> children = new ArrayList<>(n);
+		int[] pendingParents = new int[n];
+		boolean[] blocked = new boolean[n];
+		for (int i = 0; i < n; i++){
+			indexes.put(tasks.get(i), i);
+			children.add(new ArrayList<Integer>());
+		}
+		for (int i = 0; i < n; i++){
+			for (LinkedTask parent : tasks.get(i).getParents()){
+				children.get(indexes.get(parent)).add(i);
+				pendingParents[i]++;
+			}
+		}
+
+		PriorityQueue<Integer> ready = new PriorityQueue<>(Math.max(1, n), new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				int byRemaining = Double.compare(remaining(b), remaining(a));
+				return byRemaining != 0 ? byRemaining : Integer.compare(a, b);
+			}
+		});
+		for (int i = 0; i < n; i++){
+			if (pendingParents[i] == 0){
+				ready.add(i);
+			}
+		}
+
+		final long runStart = System.currentTimeMillis();
+		List<TaskRun> runs = new ArrayList<>();
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		CompletionService<TaskRun> completions = new ExecutorCompletionService<>(executor);
+		Map<String, Integer> running = new HashMap<>();
+		try {
+			while (!ready.isEmpty() || !running.isEmpty()){
+				while (running.size() < threads && !ready.isEmpty()){
+					final int index = ready.poll();
+					final LinkedTask task = tasks.get(index);
+					running.put(task.getName(), index);
+					completions.submit(new Callable<TaskRun>() {
+						@Override
+						public TaskRun call() {
+							TaskRun run = new TaskRun(task.getName());
+							run.start = System.currentTimeMillis() - runStart;
+							try {
+								runner.run(task);
+								run.status = Status.SUCCEEDED;
+							} catch (Throwable e) {
+								run.status = Status.FAILED;
+								run.error = e.toString();
+							}
+							run.duration = System.currentTimeMillis() - runStart - run.start;
+							return run;
+						}
+					});
+				}
+
+				TaskRun finished = getQuietly(completions);
+				runs.add(finished);
+				int index = running.remove(finished.getName());
+
+				// Release the children, skipping everything below a failure
+				Deque<Integer> done = new ArrayDeque<>();
+				done.add(index);
+				while (!done.isEmpty()){
+					int parent = done.poll();
+					boolean failed = parent != index || finished.status != Status.SUCCEEDED;
+					for (int child : children.get(parent)){
+						blocked[child] |= failed;
+						if (--pendingParents[child] == 0){
+							if (blocked[child]){
+								TaskRun skipped = new TaskRun(tasks.get(child).getName());
+								skipped.status = Status.SKIPPED;
+								runs.add(skipped);
+								done.add(child);
+							} else {
+								ready.add(child);
+							}
+						}
+					}
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		return runs;
+	}
+
+	private double remaining(int index){
+		LinkedTask task = tasks.get(index);
+		return task.getTiming() != null ? task.getTiming().getRemaining() : 0;
+	}
+
+	private static TaskRun getQuietly(CompletionService<TaskRun> completions) throws InterruptedException {
+		try {
+			return completions.take().get();
+		} catch (ExecutionException e) {
+			// The callable catches everything itself
+			throw new IllegalStateException(e);
+		}
+	}
+}
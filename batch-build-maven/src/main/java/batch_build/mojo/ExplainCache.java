@@ -0,0 +1,95 @@
+package batch_build.mojo;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import org.apache.maven.plugin.logging.Log;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Persistent cache of hive explain results keyed by the hash of the script
+ * text. The whole cache is tied to an environment key (table DDL, hive
+ * config and the classpath), if that changes every entry is thrown away.
+ */
+public class ExplainCache {
+
+	// Bump when the contents of an entry change meaning
+	private static final String FORMAT_VERSION = "3";
+
+	@Getter
+	@Setter
+	private static class State {
+		private String environment;
+		private Map<String, ExplainResult> entries = new HashMap<>();
+	}
+
+	private final String environment;
+	private final Map<String, ExplainResult> previous;
+	// Only entries used by this build are written back so the cache cannot grow forever
+	private final Map<String, ExplainResult> current = new HashMap<>();
+	@Getter
+	private int hits;
+	@Getter
+	private int misses;
+
+	private ExplainCache(String environment, Map<String, ExplainResult> previous) {
+		this.environment = environment;
+		this.previous = previous;
+	}
+
+	public static ExplainCache empty(String environment){
+		return new ExplainCache(FORMAT_VERSION + ":" + environment, new HashMap<String, ExplainResult>());
+	}
+
+	/**
+	 * Loads the cache, discarding it if it was written for a different environment
+	 * or cannot be read
+	 * @param log where an unreadable cache is warned about
+	 */
+	public static ExplainCache load(File cacheFile, String environment, Log log){
+		ExplainCache cache = empty(environment);
+		if (cacheFile.isFile()){
+			try {
+				State state = new ObjectMapper().readValue(cacheFile, State.class);
+				if (cache.environment.equals(state.getEnvironment())){
+					return new ExplainCache(cache.environment, state.getEntries());
+				}
+			} catch (IOException e) {
+				log.warn("Ignoring unreadable explain cache " + cacheFile + ": " + e.getMessage());
+			}
+		}
+		return cache;
+	}
+
+	public synchronized ExplainResult get(String contentHash){
+		ExplainResult entry = current.get(contentHash);
+		if (entry == null){
+			entry = previous.get(contentHash);
+		}
+		if (entry == null){
+			misses++;
+			return null;
+		}
+		hits++;
+		current.put(contentHash, entry);
+		return entry;
+	}
+
+	public synchronized void put(String contentHash, ExplainResult result){
+		current.put(contentHash, result);
+	}
+
+	public synchronized void write(File cacheFile) throws IOException{
+		State state = new State();
+		state.setEnvironment(environment);
+		state.setEntries(current);
+		cacheFile.getParentFile().mkdirs();
+		new ObjectMapper().writeValue(cacheFile, state);
+	}
+}
@@ -0,0 +1,43 @@
+package batch_build.mojo;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import lombok.Getter;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+
+/**
+ * The resources a script reads and writes, as found by explaining it
+ */
+@Getter
+public class ExplainResult {
+	private Set<String> sources;
+	private Set<String> sinks;
+	// Null when the explainer does not work out column lineage
+	@JsonInclude(Include.NON_NULL)
+	private Map<String, Set<String>> columnLineage;
+	// Resource id to the partitions read or written, null when no resource is partly read or written
+	@JsonInclude(Include.NON_NULL)
+	private Map<String, Set<String>> sourcePartitions;
+	@JsonInclude(Include.NON_NULL)
+	private Map<String, Set<String>> sinkPartitions;
+
+	private ExplainResult(){}
+
+	public ExplainResult(Set<String> sources, Set<String> sinks) {
+		this(sources, sinks, null, null, null);
+	}
+
+	public ExplainResult(Set<String> sources, Set<String> sinks, Map<String, Set<String>> sourcePartitions,
+			Map<String, Set<String>> sinkPartitions, Map<String, Set<String>> columnLineage) {
+		this.sources = new TreeSet<>(sources);
+		this.sinks = new TreeSet<>(sinks);
+		this.sourcePartitions = sourcePartitions != null && !sourcePartitions.isEmpty() ? new TreeMap<>(sourcePartitions) : null;
+		this.sinkPartitions = sinkPartitions != null && !sinkPartitions.isEmpty() ? new TreeMap<>(sinkPartitions) : null;
+		this.columnLineage = columnLineage != null ? new TreeMap<>(columnLineage) : null;
+	}
+}
@@ -0,0 +1,128 @@
+package batch_build.mojo;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.WeakHashMap;
+
+import org.apache.hadoop.hive.ql.session.SessionState;
+
+/**
+ * Lineage captured by {@link HiveExplainHook} for a single hive session.
+ * Sessions are bound to the thread that started them (as hive's own
+ * SessionState is), so several scripts can be explained at once on
+ * different threads without sharing any state.
+ */
+public class ExplainSession {
+
+	private static final Map<SessionState, ExplainSession> SESSIONS = Collections
+			.synchronizedMap(new WeakHashMap<SessionState, ExplainSession>());
+
+	// Sorted so the model is the same whatever order hive reports entities in
+	private final Set<String> sinks = new TreeSet<>();
+	private final Set<String> sources = new TreeSet<>();
+	private final Set<String> tablesCreated = new TreeSet<>();
+	private final Map<String, Set<String>> columnLineage = new TreeMap<>();
+	// Resource id to the partitions accessed, null once the whole resource is
+	private final Map<String, Set<String>> sourcePartitions = new TreeMap<>();
+	private final Map<String, Set<String>> sinkPartitions = new TreeMap<>();
+	private final SessionState sessionState;
+
+	private ExplainSession(SessionState sessionState) {
+		this.sessionState = sessionState;
+	}
+
+	/**
+	 * Starts the hive session on the current thread and begins capturing its lineage
+	 */
+	public static ExplainSession start(SessionState sessionState){
+		SessionState.start(sessionState);
+		ExplainSession session = new ExplainSession(sessionState);
+		SESSIONS.put(sessionState, session);
+		return session;
+	}
+
+	/**
+	 * The session for the hive session running on this thread, or null if it was
+	 * not started through {@link #start(SessionState)}
+	 */
+	public static ExplainSession current(){
+		SessionState sessionState = SessionState.get();
+		return sessionState == null ? null : SESSIONS.get(sessionState);
+	}
+
+	public void close(){
+		SESSIONS.remove(sessionState);
+	}
+
+	/**
+	 * Records a read of the resource, of just the partition given or of all of it when null
+	 */
+	public void addSource(String resource, String partition){
+		sources.add(resource);
+		addPartition(sourcePartitions, resource, partition);
+	}
+
+	/**
+	 * Records a write of the resource, of just the partition given or of all of it when null
+	 */
+	public void addSink(String resource, String partition){
+		sinks.add(resource);
+		addPartition(sinkPartitions, resource, partition);
+	}
+
+	private static void addPartition(Map<String, Set<String>> partitions, String resource, String partition){
+		if (partition == null){
+			partitions.put(resource, null);
+		} else if (!partitions.containsKey(resource)){
+			partitions.put(resource, new TreeSet<>(Collections.singleton(partition)));
+		} else if (partitions.get(resource) != null){
+			partitions.get(resource).add(partition);
+		}
+	}
+
+	/**
+	 * The partitions read of the sources only ever read by partition
+	 */
+	public Map<String, Set<String>> getSourcePartitions(){
+		return partitioned(sourcePartitions);
+	}
+
+	/**
+	 * The partitions written of the sinks only ever written by partition
+	 */
+	public Map<String, Set<String>> getSinkPartitions(){
+		return partitioned(sinkPartitions);
+	}
+
+	private static Map<String, Set<String>> partitioned(Map<String, Set<String>> partitions){
+		Map<String, Set<String>> partitioned = new TreeMap<>();
+		for (Map.Entry<String, Set<String>> resource : partitions.entrySet()){
+			if (resource.getValue() != null){
+				partitioned.put(resource.getKey(), resource.getValue());
+			}
+		}
+		return partitioned;
+	}
+
+	public Set<String> getSinks(){
+		return sinks;
+	}
+
+	public Set<String> getSources(){
+		return sources;
+	}
+
+	/**
+	 * Written column to the columns it depends on, see {@link ColumnLineage}
+	 */
+	public Map<String, Set<String>> getColumnLineage(){
+		return columnLineage;
+	}
+
+	public Set<String> getTablesCreated(){
+		return tablesCreated;
+	}
+}
@@ -0,0 +1,422 @@
+package batch_build.mojo;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.StringUtils;
+import org.apache.hadoop.hive.cli.CliDriver;
+import org.apache.hadoop.hive.cli.CliSessionState;
+import org.apache.hadoop.hive.conf.HiveConf;
+import org.apache.hadoop.hive.metastore.HiveMetaStoreClient;
+import org.apache.hadoop.hive.metastore.api.Database;
+import org.apache.hadoop.hive.metastore.api.FieldSchema;
+import org.apache.hadoop.hive.metastore.api.InvalidObjectException;
+import org.apache.hadoop.hive.metastore.api.MetaException;
+import org.apache.hadoop.hive.metastore.api.StorageDescriptor;
+import org.apache.hadoop.hive.metastore.api.Table;
+import org.apache.hadoop.hive.ql.session.SessionState;
+import org.apache.hadoop.hive.serde2.SerDeUtils;
+import org.apache.hive.hcatalog.common.HCatUtil;
+import org.apache.thrift.TException;
+
+import batch_build.common.model.resources.HCatResource;
+import batch_build.common.model.resources.HCatResource.HCatColumn;
+import batch_build.common.utils.ContentHasher;
+
+/**
+ * The embedded hive and metastore used to explain scripts. Kept free of any
+ * maven classes so it can also be hosted by the compile daemon.
+ */
+public class HiveEnvironment implements ScriptExplainer {
+
+	private static final int TABLE_BATCH_SIZE = 100;
+
+	private TableDdl tableDdl;
+	private final File metastoreSnapshotDir;
+	// db.table to the DDL that created it
+	private Map<String,String> tableNameToSource;
+	// Where the DDL files run are timed
+	private BuildProfile profile = new BuildProfile();
+
+	/**
+	 * @param metastoreSnapshotDir where to keep metastore snapshots, or null to always run the DDL
+	 */
+	public HiveEnvironment(TableDdl tableDdl, File metastoreSnapshotDir) {
+		this.tableDdl = tableDdl;
+		this.metastoreSnapshotDir = metastoreSnapshotDir;
+	}
+
+	public void setProfile(BuildProfile profile){
+		this.profile = profile;
+	}
+
+	public static void setupHadoop(File tmpDir) throws IOException {
+		tmpDir.mkdirs();
+		
+		System.setProperty("target.tmp", tmpDir.getAbsolutePath());
+		System.setProperty("pig.temp.dir", tmpDir.getAbsolutePath());
+		System.setProperty("derby.stream.error.file", tmpDir.getAbsolutePath()
+				+ "/derby.log");
+		System.setProperty("hive.semantic.analyzer.hook", HiveExplainHook.class.getName());
+
+		File hadoopHome = new File(tmpDir, "hadoop");
+		File hadoopBin = new File(hadoopHome, "bin");
+		hadoopBin.mkdirs();
+		System.setProperty("hadoop.home.dir", hadoopHome.getAbsolutePath());
+		FileUtils.copyInputStreamToFile(Thread.currentThread()
+				.getContextClassLoader().getResourceAsStream("winutils.exe"),
+				new File(hadoopBin, "winutils.exe"));
+	}
+
+	/**
+	 * Puts the project classpath (udfs, serdes etc.) on the context classloader, the table
+	 * DDL is found by {@link TableDdl}
+	 */
+	public static void setupClassLoader(List<String> classpathElements) throws MalformedURLException, ClassNotFoundException {
+		// Dirty hack to prevent against class not found error caused by mavens classloaders
+		// being shutdown before the shutdownhooks have been run
+		Class.forName("org.apache.hadoop.util.ShutdownHookManager$2");
+		// These are only for hive/pig 0.12
+		Class.forName("com.google.common.cache.LocalCache$Values");
+		Class.forName("com.google.common.cache.LocalCache$ValueIterator");
+		Class.forName("com.google.common.cache.LocalCache$WriteThroughEntry");
+		
+		URL[] urls = new URL[classpathElements.size()];
+		for (int i = 0; i < classpathElements.size(); i++) {
+			urls[i] = new File(classpathElements.get(i)).toURI().toURL();
+		}
+		URLClassLoader cl = URLClassLoader.newInstance(urls, Thread.currentThread().getContextClassLoader());
+		Thread.currentThread().setContextClassLoader(cl);
+	}
+
+	/**
+	 * In local mode hive runs map reduce jobs as a child "hadoop jar" process. Unless hadoop.bin.path
+	 * is set this writes a stand in for the hadoop script that runs them with this jvm's java on the
+	 * given classpath, so no hadoop install is needed. Only a sh script, on windows point
+	 * hadoop.bin.path at a real hadoop.
+	 */
+	public static void setupHadoopLauncher(File tmpDir, List<String> classpath) throws IOException {
+		if (System.getProperty("hadoop.bin.path") != null){
+			return;
+		}
+		File java = new File(new File(System.getProperty("java.home"), "bin"), "java");
+		File launcher = new File(tmpDir, "hadoop/bin/hadoop-launcher");
+		// Called as: jar <hive jar> <main class> <args>, the jar is already on the classpath.
+		// hive-site.xml refers to target.tmp
+		FileUtils.writeStringToFile(launcher, "#!/bin/sh\n"
+				+ "export CLASSPATH='" + StringUtils.join(classpath, File.pathSeparator) + "'\n"
+				+ "if [ \"$1\" = \"jar\" ]; then shift 2; fi\n"
+				+ "exec '" + java.getAbsolutePath() + "'"
+				+ " '-Dtarget.tmp=" + tmpDir.getAbsolutePath() + "'"
+				+ " '-Dhadoop.home.dir=" + System.getProperty("hadoop.home.dir") + "'"
+				+ " $HADOOP_OPTS \"$@\"\n");
+		launcher.setExecutable(true);
+		System.setProperty("hadoop.bin.path", launcher.getAbsolutePath());
+	}
+
+	/**
+	 * Makes sessions started from now on really run queries rather than just explain them,
+	 * the tables should be created first so their sources are still recorded
+	 */
+	public static void disableExplainHook(){
+		System.clearProperty("hive.semantic.analyzer.hook");
+	}
+
+	/**
+	 * Creates the tables of the DDL files in the local metastore, restoring the snapshot
+	 * saved for the same DDL if there is one and running every file otherwise, then reads
+	 * all the tables back from the metastore
+	 * @return every table in the metastore, with the DDL that created it where known
+	 */
+	public List<HCatResource> createHiveTables() throws IOException,
+			InvalidObjectException, MetaException, TException, SQLException {
+		String tablesHash = tableDdl.getHash();
+		HiveConf hiveConf = new HiveConf(HiveEnvironment.class);
+		MetastoreSnapshot snapshot = metastoreSnapshotDir != null ? MetastoreSnapshot.forConf(metastoreSnapshotDir, hiveConf, tablesHash) : null;
+		HiveMetaStoreClient hiveClient;
+		if (snapshot != null && snapshot.exists()){
+			System.out.println("Restoring metastore snapshot for tables " + tablesHash);
+			tableNameToSource = snapshot.restore();
+			hiveClient = HCatUtil.getHiveClient(hiveConf);
+		} else {
+			hiveClient = HCatUtil.getHiveClient(hiveConf);
+			tableNameToSource = new HashMap<>();
+			List<String> badFiles = runTableDdl(hiveClient, tableDdl.getNames(), tableNameToSource);
+			if (!badFiles.isEmpty()) {
+				throw new RuntimeException("Error creating tables in files "
+						+ badFiles);
+			}
+			if (snapshot != null){
+				snapshot.save(tableNameToSource);
+			}
+		}
+		
+		try {
+			return readTables(hiveConf, hiveClient.getAllDatabases(), tableNameToSource);
+		} catch (InterruptedException | ExecutionException e) {
+			throw new RuntimeException("Failed to read tables from the metastore", e);
+		}
+	}
+
+	/**
+	 * Reads the tables of each database in parallel, fetching the table objects in batches
+	 * rather than one metastore call per table
+	 */
+	private List<HCatResource> readTables(final HiveConf hiveConf, List<String> dbNames,
+			final Map<String,String> tableNameToSource) throws InterruptedException, ExecutionException {
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1,
+				Math.min(dbNames.size(), Runtime.getRuntime().availableProcessors())));
+		try {
+			List<Future<List<HCatResource>>> dbTables = new ArrayList<>();
+			for (final String dbName : dbNames){
+				dbTables.add(executor.submit(new Callable<List<HCatResource>>() {
+					@Override
+					public List<HCatResource> call() throws Exception {
+						// The embedded metastore keeps its store per thread, so each worker gets its own client
+						HiveMetaStoreClient client = new HiveMetaStoreClient(hiveConf);
+						try {
+							return readTables(client, dbName, tableNameToSource);
+						} finally {
+							client.close();
+						}
+					}
+				}));
+			}
+			List<HCatResource> tables = new ArrayList<>();
+			for (Future<List<HCatResource>> future : dbTables){
+				tables.addAll(future.get());
+			}
+			return tables;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private List<HCatResource> readTables(HiveMetaStoreClient hiveClient, String dbName,
+			Map<String,String> tableNameToSource) throws TException {
+		List<String> tableNames = hiveClient.getAllTables(dbName);
+		Map<String, Table> tablesByName = new HashMap<>();
+		for (int i = 0; i < tableNames.size(); i += TABLE_BATCH_SIZE){
+			List<String> batch = tableNames.subList(i, Math.min(tableNames.size(), i + TABLE_BATCH_SIZE));
+			for (Table table : hiveClient.getTableObjectsByName(dbName, batch)){
+				tablesByName.put(table.getTableName(), table);
+			}
+		}
+
+		List<HCatResource> tables = new ArrayList<>();
+		for (String tableName : tableNames) {
+			Table table = tablesByName.get(tableName);
+			if (table == null){
+				// Not returned by the batch fetch, fall back to reading it on its own
+				table = hiveClient.getTable(dbName, tableName);
+			}
+			List<HCatColumn> columns = new ArrayList<>();
+			for (FieldSchema field : tableFields(hiveClient, table)) {
+				columns.add(new HCatColumn(field.getType(),
+						field.getName(), field.getComment(), false));
+			}
+			for (FieldSchema field : table.getPartitionKeys()) {
+				columns.add(new HCatColumn(field.getType(),
+						field.getName(), field.getComment(), true));
+			}
+			String source = tableNameToSource.get(dbName + "." + tableName);
+			tables.add(new HCatResource(dbName, tableName, table
+					.getParameters().get("comment"), source, columns));
+		}
+		return tables;
+	}
+
+	/**
+	 * Columns of the table, taken from the storage descriptor unless the serde
+	 * owns the schema (e.g. avro) in which case the metastore has to ask it
+	 */
+	private static List<FieldSchema> tableFields(HiveMetaStoreClient hiveClient, Table table) throws TException {
+		StorageDescriptor sd = table.getSd();
+		String serde = sd != null && sd.getSerdeInfo() != null ? sd.getSerdeInfo().getSerializationLib() : null;
+		if (sd == null || SerDeUtils.shouldGetColsFromSerDe(serde)){
+			return hiveClient.getFields(table.getDbName(), table.getTableName());
+		}
+		return sd.getCols();
+	}
+	
+	/**
+	 * Tables last created by the given DDL files, as db.table. Matched on the hash of the DDL
+	 * so this still works once a file has changed or gone.
+	 */
+	public Set<String> tablesCreatedBy(Collection<String> fileNames){
+		Set<String> hashes = new HashSet<>();
+		for (String fileName : fileNames){
+			if (tableDdl.getNames().contains(fileName)){
+				hashes.add(tableDdl.hashOf(fileName));
+			}
+		}
+		Set<String> tables = new TreeSet<>();
+		for (Map.Entry<String, String> table : tableNameToSource.entrySet()){
+			if (hashes.contains(ContentHasher.sha1(table.getValue()))){
+				tables.add(table.getKey());
+			}
+		}
+		return tables;
+	}
+
+	/**
+	 * Runs changed DDL files again against the running metastore, for watch mode. The tables
+	 * the files created before are dropped first, a deleted file just has its tables dropped.
+	 * @return the tables the files create now
+	 */
+	public List<HCatResource> recreateTables(TableDdl newDdl, Collection<String> fileNames) throws IOException, TException {
+		HiveConf hiveConf = new HiveConf(HiveEnvironment.class);
+		HiveMetaStoreClient hiveClient = new HiveMetaStoreClient(hiveConf);
+		try {
+			for (String table : tablesCreatedBy(fileNames)){
+				String[] name = table.split("\\.", 2);
+				hiveClient.dropTable(name[0], name[1], false, true);
+				tableNameToSource.remove(table);
+			}
+			tableDdl = newDdl;
+			List<String> existing = new ArrayList<>();
+			for (String fileName : fileNames){
+				if (newDdl.getNames().contains(fileName)){
+					existing.add(fileName);
+				}
+			}
+			Map<String,String> created = new HashMap<>();
+			List<String> badFiles = runTableDdl(hiveClient, existing, created);
+			if (!badFiles.isEmpty()){
+				// The tables that did get created are still returned, scripts using the others will fail to explain
+				System.out.println("Error creating tables in files " + badFiles);
+			}
+			tableNameToSource.putAll(created);
+			Set<String> dbNames = new TreeSet<>();
+			for (String table : created.keySet()){
+				dbNames.add(table.substring(0, table.indexOf('.')));
+			}
+			List<HCatResource> tables = new ArrayList<>();
+			for (String dbName : dbNames){
+				for (HCatResource table : readTables(hiveClient, dbName, tableNameToSource)){
+					if (created.containsKey(dbName + "." + table.getTableName())){
+						tables.add(table);
+					}
+				}
+			}
+			return tables;
+		} finally {
+			hiveClient.close();
+		}
+	}
+
+	/**
+	 * Runs the DDL files, adding the tables they create to tableNameToSource
+	 * @return the files that failed
+	 */
+	private List<String> runTableDdl(HiveMetaStoreClient hiveClient, Collection<String> fileNames,
+			Map<String,String> tableNameToSource) throws IOException, TException {
+		SessionState.start(createNewSessionState());
+		CliDriver hiveCli = new CliDriver();
+		Set<String> dbsCreated = new HashSet<>(hiveClient.getAllDatabases());
+		List<String> badFiles = new ArrayList<>();
+		for (String fileName : fileNames) {
+			String source = tableDdl.read(fileName);
+			String dbName = fileName.substring(0, fileName.indexOf('/'));
+			if (dbsCreated.add(dbName)){
+				hiveClient.createDatabase(new Database(dbName, null, null, null));
+			}
+			System.out.println("Running " + fileName);
+			ExplainSession session = ExplainSession.start(createNewSessionState());
+			try (BuildProfile.Timer timer = profile.ddl(fileName)) {
+				if (hiveCli.processReader(new BufferedReader(new StringReader(source))) != 0) {
+					badFiles.add(fileName);
+				}
+			}
+			session.close();
+			for (String tableName : session.getTablesCreated()){
+				tableNameToSource.put(tableName, source);
+			}
+			
+		}
+		return badFiles;
+	}
+	
+	@Override
+	public ExplainResult explain(String taskName, String source) throws IOException {
+		System.out.println("Explaining " + taskName);
+		ExplainSession session = ExplainSession.start(createNewSessionState());
+		try {
+			CliDriver hiveCli = new CliDriver();
+			if (hiveCli.processReader(new BufferedReader(new StringReader(source))) !=0){
+				throw new RuntimeException("Failed to explain hive query " + taskName);
+			}
+		} finally {
+			session.close();
+		}
+		return new ExplainResult(session.getSources(), session.getSinks(), session.getSourcePartitions(),
+				session.getSinkPartitions(), session.getColumnLineage());
+	}
+
+	/**
+	 * Runs a script for real, see {@link #disableExplainHook()}
+	 */
+	public void run(String taskName, String source){
+		SessionState.start(createNewSessionState());
+		CliDriver hiveCli = new CliDriver();
+		try {
+			if (hiveCli.processReader(new BufferedReader(new StringReader(source))) != 0){
+				throw new RuntimeException("Failed to run hive task " + taskName);
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("Failed to run hive task " + taskName, e);
+		}
+	}
+
+	/**
+	 * Hash of the table DDL and hive config, everything other than the script
+	 * itself that can change the result of an explain
+	 */
+	public String environmentHash(){
+		ContentHasher environment = new ContentHasher().update(tableDdl.getHash());
+		// Hive config affects how the scripts are analysed, other hadoop defaults get
+		// loaded lazily so only hive's own settings are stable enough to key on
+		Map<String, String> conf = new TreeMap<>();
+		for (Map.Entry<String, String> entry : new HiveConf(HiveEnvironment.class)){
+			if (entry.getKey().startsWith("hive.")){
+				conf.put(entry.getKey(), entry.getValue());
+			}
+		}
+		for (Map.Entry<String, String> entry : conf.entrySet()){
+			environment.update(entry.getKey()).update(entry.getValue());
+		}
+		return environment.hex();
+	}
+
+	public static CliSessionState createNewSessionState() {
+		CliSessionState ss = new CliSessionState(new HiveConf(
+				HiveEnvironment.class));
+		ss.getConf().set("batch_id", "1000");
+		ss.err = System.err;
+		ss.out = System.err;
+		ss.childErr = System.err;
+		ss.setIsSilent(false);
+		return ss;
+	}
+}
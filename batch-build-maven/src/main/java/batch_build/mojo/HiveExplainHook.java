@@ -1,12 +1,13 @@
 package batch_build.mojo;
 
 import java.io.Serializable;
-import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.apache.hadoop.hive.ql.exec.DDLTask;
 import org.apache.hadoop.hive.ql.exec.Task;
+import org.apache.hadoop.hive.ql.hooks.Entity;
 import org.apache.hadoop.hive.ql.hooks.ReadEntity;
 import org.apache.hadoop.hive.ql.hooks.WriteEntity;
 import org.apache.hadoop.hive.ql.parse.ASTNode;
@@ -16,18 +17,12 @@ import org.apache.hadoop.hive.ql.parse.SemanticException;
 import org.apache.hadoop.hive.ql.plan.CreateTableDesc;
 import org.apache.hadoop.hive.ql.plan.api.StageType;
 
+/**
+ * Records the lineage of each statement into the {@link ExplainSession} of
+ * the running hive session and then turns the query into a NOOP
+ */
 public class HiveExplainHook implements HiveSemanticAnalyzerHook {
 	
-	private static Set<String> sinks = new HashSet<>();
-	private static Set<String> sources = new HashSet<>();
-	private static Set<String> tablesCreated = new HashSet<>();
-	
-	public static void reset(){
-		sinks = new HashSet<>();
-		sources = new HashSet<>();
-		tablesCreated = new HashSet<>();
-	}
-	
 
 	@Override
 	public ASTNode preAnalyze(HiveSemanticAnalyzerHookContext context,
@@ -39,40 +34,47 @@ public class HiveExplainHook implements HiveSemanticAnalyzerHook {
 	public void postAnalyze(HiveSemanticAnalyzerHookContext context,
 			List<Task<? extends Serializable>> rootTasks)
 			throws SemanticException {
+		ExplainSession session = ExplainSession.current();
 		// Allow DDL but rewrite external tables to use the default location
 		if(rootTasks.get(0).getType() == StageType.DDL){
 			DDLTask ddlTask = (DDLTask) rootTasks.get(0);
 			CreateTableDesc createTableDesc = ddlTask.getWork().getCreateTblDesc();
+			// Null for any other DDL, e.g. USE or DROP TABLE
 			if (createTableDesc !=null){
 				createTableDesc.setLocation(null);
+				if (session != null){
+					session.getTablesCreated().add(createTableDesc.getTableName());
+				}
 			}
-			tablesCreated.add(createTableDesc.getTableName());
 			return;
 		}else if (rootTasks.get(0).getType() == StageType.FUNC){
 			return;
 		}
 		
-		for(ReadEntity readEntity : context.getInputs()){
-			sources.add("hcat:" + readEntity.getTable().getDbName() + "." + readEntity.getTable());
-		}
-		for(WriteEntity writeEntity : context.getOutputs()){
-			sinks.add("hcat:" + writeEntity.getTable().getDbName() + "." + writeEntity.getTable());
+		if (session != null){
+			Map<String, Set<String>> scanned = ScannedPartitions.find();
+			for(ReadEntity readEntity : context.getInputs()){
+				String resource = "hcat:" + readEntity.getTable().getDbName() + "." + readEntity.getTable();
+				if (readEntity.getType() == Entity.Type.PARTITION){
+					session.addSource(resource, readEntity.getPartition().getName());
+				} else if (scanned.containsKey(resource)){
+					for (String partition : scanned.get(resource)){
+						session.addSource(resource, partition);
+					}
+				} else {
+					session.addSource(resource, null);
+				}
+			}
+			for(WriteEntity writeEntity : context.getOutputs()){
+				String resource = "hcat:" + writeEntity.getTable().getDbName() + "." + writeEntity.getTable();
+				// Static partitions, dynamic ones only show up as the table
+				session.addSink(resource, writeEntity.getType() == Entity.Type.PARTITION
+						? writeEntity.getPartition().getName() : null);
+			}
+			ColumnLineage.collect(rootTasks, context.getInputs(), context.getOutputs(), session.getColumnLineage());
 		}
 		
 		// Turn Query into NOOP
 		rootTasks.clear();
 	}
-
-	public static Set<String> getSinks(){
-		return sinks;
-	}
-	
-	public static Set<String> getSources(){
-		return sources;
-	}
-	
-	public static Set<String> getTablesCreated(){
-		return tablesCreated;
-	}
-
 }
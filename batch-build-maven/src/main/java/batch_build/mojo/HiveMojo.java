@@ -16,7 +16,7 @@ public class HiveMojo extends AbstractMojo {
 
 	public void execute() throws MojoExecutionException {
 		try {
-			CompileMojo.setupHadoop(tmpDir);
+			HiveEnvironment.setupHadoop(tmpDir);
 			CliDriver.main(new String[]{});
 		} catch (Throwable e) {
 			throw new MojoExecutionException("Problem running mojo", e);
@@ -0,0 +1,126 @@
+package batch_build.mojo;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hive.conf.HiveConf;
+import org.apache.hive.common.util.HiveVersionInfo;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.type.TypeFactory;
+
+/**
+ * Copy of the embedded derby metastore (and warehouse) taken straight after
+ * the table DDL has been run. Snapshots are keyed by the hash of the DDL so a
+ * build with unchanged tables can restore the metastore instead of replaying
+ * every DDL file through hive.
+ */
+public class MetastoreSnapshot {
+
+	private static final String TABLES_FILE = "tables.json";
+	private static final String WAREHOUSE_DIR = "warehouse";
+
+	private final File snapshotDir;
+	private final File databaseDir;
+	private final File warehouseDir;
+	private final HiveConf conf;
+
+	private MetastoreSnapshot(File snapshotDir, File databaseDir, File warehouseDir, HiveConf conf) {
+		this.snapshotDir = snapshotDir;
+		this.databaseDir = databaseDir;
+		this.warehouseDir = warehouseDir;
+		this.conf = conf;
+	}
+
+	/**
+	 * The snapshot for the given DDL hash, or null if the metastore is not an
+	 * embedded derby database and so cannot be snapshotted
+	 */
+	public static MetastoreSnapshot forConf(File snapshotsDir, HiveConf conf, String tablesHash){
+		String databasePath = derbyDatabasePath(conf.getVar(HiveConf.ConfVars.METASTORECONNECTURLKEY));
+		if (databasePath == null){
+			return null;
+		}
+		File warehouseDir = new File(new Path(conf.getVar(HiveConf.ConfVars.METASTOREWAREHOUSE)).toUri().getPath());
+		String key = tablesHash + "-" + HiveVersionInfo.getVersion();
+		return new MetastoreSnapshot(new File(snapshotsDir, key), new File(databasePath), warehouseDir, conf);
+	}
+
+	public boolean exists(){
+		return new File(snapshotDir, TABLES_FILE).isFile();
+	}
+
+	/**
+	 * Copies the snapshot into place, must be called before the metastore is started
+	 * @return the DDL source of every table in the snapshot
+	 */
+	public Map<String, String> restore() throws IOException{
+		FileUtils.deleteDirectory(databaseDir);
+		FileUtils.copyDirectory(new File(snapshotDir, databaseDir.getName()), databaseDir);
+		File warehouseSnapshot = new File(snapshotDir, WAREHOUSE_DIR);
+		if (warehouseSnapshot.isDirectory()){
+			FileUtils.deleteDirectory(warehouseDir);
+			FileUtils.copyDirectory(warehouseSnapshot, warehouseDir);
+		}
+		return new ObjectMapper().readValue(new File(snapshotDir, TABLES_FILE), TypeFactory
+				.defaultInstance().constructMapType(TreeMap.class, String.class, String.class));
+	}
+
+	/**
+	 * Takes an online backup of the running metastore, replacing any older snapshots
+	 */
+	public void save(Map<String, String> tableSources) throws IOException, SQLException{
+		File[] oldSnapshots = snapshotDir.getParentFile().listFiles();
+		if (oldSnapshots != null){
+			for (File oldSnapshot : oldSnapshots){
+				FileUtils.deleteDirectory(oldSnapshot);
+			}
+		}
+		snapshotDir.mkdirs();
+		Connection connection = DriverManager.getConnection(
+				conf.getVar(HiveConf.ConfVars.METASTORECONNECTURLKEY),
+				conf.getVar(HiveConf.ConfVars.METASTORE_CONNECTION_USER_NAME),
+				conf.getVar(HiveConf.ConfVars.METASTOREPWD));
+		try {
+			CallableStatement backup = connection.prepareCall("CALL SYSCS_UTIL.SYSCS_BACKUP_DATABASE(?)");
+			backup.setString(1, snapshotDir.getAbsolutePath());
+			backup.execute();
+			backup.close();
+		} finally {
+			connection.close();
+		}
+		if (warehouseDir.isDirectory()){
+			FileUtils.copyDirectory(warehouseDir, new File(snapshotDir, WAREHOUSE_DIR));
+		}
+		// Written last, a snapshot without it is incomplete and will not be used
+		new ObjectMapper().writeValue(new File(snapshotDir, TABLES_FILE), new TreeMap<>(tableSources));
+	}
+
+	/**
+	 * Path of the database in a derby connection url, e.g.
+	 * jdbc:derby:;databaseName=/tmp/metastore_db;create=true or jdbc:derby:/tmp/metastore_db
+	 */
+	static String derbyDatabasePath(String url){
+		if (url == null || !url.startsWith("jdbc:derby:")){
+			return null;
+		}
+		String[] parts = url.substring("jdbc:derby:".length()).split(";");
+		if (!parts[0].isEmpty()){
+			return parts[0].startsWith("directory:") ? parts[0].substring("directory:".length()) : parts[0];
+		}
+		for (String part : parts){
+			if (part.startsWith("databaseName=")){
+				return part.substring("databaseName=".length());
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,71 @@
+package batch_build.mojo;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+
+import batch_build.common.model.BatchModel;
+import batch_build.common.model.tasks.LinkedTask;
+import batch_build.common.model.tasks.RerunPlanner;
+
+/**
+ * Prints the smallest set of tasks to rerun after scripts changed or the data in some columns
+ * was fixed, using the column lineage of the compiled model. Meant for planning backfills.
+ */
+@Mojo(requiresProject = true, name = "plan")
+public class PlanMojo extends AbstractMojo {
+
+	@Parameter(defaultValue = "${project.build.directory}/model.json", readonly = true, required = true)
+	private File modelFile;
+
+	/**
+	 * What changed, comma separated: task names, columns as db.table.column or whole tables as db.table
+	 */
+	@Parameter(property = "batch.changed", required = true)
+	private List<String> changed;
+
+	public void execute() throws MojoExecutionException {
+		try {
+			BatchModel model = BatchModel.read(modelFile, false);
+			Set<String> taskNames = new HashSet<>();
+			for (LinkedTask task : model.getTasks()){
+				taskNames.add(task.getName());
+			}
+			Set<String> changedTasks = new TreeSet<>();
+			Set<String> changedColumns = new TreeSet<>();
+			for (String entry : changed){
+				String name = entry.trim();
+				if (taskNames.contains(name)){
+					changedTasks.add(name);
+					continue;
+				}
+				String column = name.contains(":") ? name : "hcat:" + name;
+				if (model.getResources().containsKey(column)){
+					column += ".*";
+				}
+				if (!model.getResources().containsKey(RerunPlanner.resourceOf(column))){
+					throw new RuntimeException("Not a task, table or column of the model: " + name);
+				}
+				changedColumns.add(column);
+			}
+
+			Map<String, Set<String>> plan = RerunPlanner.plan(model.getTasks(), changedTasks, changedColumns, true);
+			int tableLevel = RerunPlanner.plan(model.getTasks(), changedTasks, changedColumns, false).size();
+			getLog().info("Rerun " + plan.size() + " of " + model.getTasks().size() + " tasks, "
+					+ tableLevel + " going by tables alone");
+			for (Map.Entry<String, Set<String>> task : plan.entrySet()){
+				getLog().info("  " + task.getKey() + (task.getValue().isEmpty() ? "" : "  changes " + task.getValue()));
+			}
+		} catch (Throwable e) {
+			throw new MojoExecutionException("Problem running mojo", e);
+		}
+	}
+}
@@ -0,0 +1,354 @@
+package batch_build.mojo;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.apache.velocity.Template;
+import org.apache.velocity.VelocityContext;
+import org.apache.velocity.app.VelocityEngine;
+import org.apache.velocity.runtime.RuntimeConstants;
+import org.apache.velocity.runtime.resource.loader.ClasspathResourceLoader;
+
+import batch_build.common.model.BatchModel;
+import batch_build.common.model.SourceHolder;
+import batch_build.common.model.resources.HCatResource;
+import batch_build.common.model.resources.Resource;
+import batch_build.common.model.tasks.DagAnalysis;
+import batch_build.common.model.tasks.LinkedTask;
+import batch_build.common.model.tasks.Task;
+import batch_build.common.utils.ContentHasher;
+import batch_build.mojo.utils.TreeNode;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.type.TypeFactory;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.Multimap;
+
+/**
+ * Renders the html docs for a model. Every page is fingerprinted by the inputs it is
+ * rendered from and only pages whose fingerprint changed since the last run are
+ * rewritten, on a thread pool. Pages for tasks or tables that no longer exist are removed.
+ * The navigation trees are written once to nav.js, which every page loads, so a page only
+ * changes with its own content.
+ */
+public class ReportGenerator {
+
+	private static final String FINGERPRINTS_FILE = ".fingerprints.json";
+	private static final String NAV_FILE = "nav.js";
+	private static final String[] TEMPLATES = {"headCommon.vm", "navBar.vm", "footerCommon.vm",
+		"tableDoc.vm", "taskDoc.vm", "taskGraph.vm", "dagAnalysis.vm"};
+
+	private final File reportDir;
+	private final int threads;
+	private final ObjectMapper mapper = new ObjectMapper();
+	private final VelocityEngine ve = new VelocityEngine();
+	private int rendered;
+	private int unchanged;
+
+	public ReportGenerator(File reportDir, int threads) {
+		this.reportDir = reportDir;
+		this.threads = threads;
+		ve.setProperty(RuntimeConstants.RESOURCE_LOADER, "classpath");
+		ve.setProperty("classpath.resource.loader.class", ClasspathResourceLoader.class.getName());
+		ve.setProperty("runtime.log.logsystem.class", "org.apache.velocity.runtime.log.NullLogSystem");
+	}
+
+	public void generate(BatchModel model, List<Task> unlinkedTasks, DagAnalysis analysis) throws Exception {
+		TreeNode<String> tasksRoot = ReportTrees.tasks(model.getTasks());
+		TreeNode<String> tablesRoot = ReportTrees.tables(model.getResources().values());
+
+		Multimap<String, Task> readUsage = ArrayListMultimap.create();
+		Multimap<String, Task> writeUsage = ArrayListMultimap.create();
+
+		// Find Usages
+		for (Task t : unlinkedTasks){
+			for (String r : t.getSinkResources()){
+				writeUsage.put(r, t);
+			}
+			for (String r : t.getSourceResources()){
+				readUsage.put(r, t);
+			}
+		}
+
+		// Everything every page shares, the templates
+		ContentHasher common = new ContentHasher();
+		for (String template : TEMPLATES){
+			hashTemplate(common, template);
+		}
+		String commonHash = common.hex();
+
+		List<Page> pages = new ArrayList<>();
+
+		// Navigation trees
+		VelocityContext navContext = new VelocityContext();
+		navContext.put("taskTree", tasksRoot);
+		navContext.put("tablesTree", tablesRoot);
+		ContentHasher navFingerprint = new ContentHasher();
+		hashTemplate(navFingerprint, "navTree.vm");
+		hashTree(navFingerprint, tasksRoot);
+		hashTree(navFingerprint, tablesRoot);
+		pages.add(new Page(NAV_FILE, ve.getTemplate("templates/navTree.vm"), navContext, navFingerprint.hex(), null));
+
+		// Tables
+		Template tableTemplate = ve.getTemplate("templates/tableDoc.vm");
+		for (Resource r : model.getResources().values()){
+			if (r instanceof HCatResource){
+				HCatResource resource = (HCatResource) r;
+				Collection<Task> readUsages = readUsage.get(resource.getUniqueIdentifier());
+				Collection<Task> writeUsages = writeUsage.get(resource.getUniqueIdentifier());
+				String fileName = resource.getDbName() + "/" + resource.getTableName() + ".html";
+				VelocityContext context = new VelocityContext();
+				context.put("urlHelper", UrlHelper.INSTANCE);
+				context.put("table", r);
+				context.put("baseDir", "../../");
+				context.put("readUsages", readUsages);
+				context.put("writeUsages", writeUsages);
+				ContentHasher fingerprint = new ContentHasher().update(commonHash)
+						.update(mapper.writeValueAsString(resource));
+				hashTaskNames(fingerprint, readUsages);
+				hashTaskNames(fingerprint, writeUsages);
+				pages.add(new Page("tables/" + fileName, tableTemplate, context, fingerprint.hex(), resource));
+			}
+		}
+
+		// Tasks
+		Template taskTemplate = ve.getTemplate("templates/taskDoc.vm");
+		for (LinkedTask task : model.getTasks()){
+			List<Resource> sinkResources = new ArrayList<>();
+			for (String resourceId : task.getTask().getSinkResources()){
+				sinkResources.add(model.getResources().get(resourceId));
+			}
+			List<Resource> sourceResources = new ArrayList<>();
+			for (String resourceId : task.getTask().getSourceResources()){
+				sourceResources.add(model.getResources().get(resourceId));
+			}
+			String fileName = task.getTask().getName() + ".html";
+			String baseDir = StringUtils.repeat("../", fileName.split("/").length);
+			VelocityContext context = new VelocityContext();
+			context.put("urlHelper", UrlHelper.INSTANCE);
+			context.put("task", task);
+			context.put("baseDir", baseDir);
+			context.put("sourceResources", sourceResources);
+			context.put("sinkResources", sinkResources);
+			ContentHasher fingerprint = new ContentHasher().update(commonHash)
+					.update(task.getTask().getName()).update(task.getTask().getSource())
+					.update(task.getTask().getSourceHash());
+			hashParentNames(fingerprint, task);
+			fingerprint.update(mapper.writeValueAsString(task.getTiming()));
+			fingerprint.update("sources");
+			for (Resource resource : sourceResources){
+				fingerprint.update(String.valueOf(resource));
+			}
+			fingerprint.update("sinks");
+			for (Resource resource : sinkResources){
+				fingerprint.update(String.valueOf(resource));
+			}
+			pages.add(new Page("tasks/" + fileName, taskTemplate, context, fingerprint.hex(), task.getTask()));
+		}
+
+		// TaskGraph
+		Template graphTemplate = ve.getTemplate("templates/taskGraph.vm");
+		VelocityContext context = new VelocityContext();
+		context.put("urlHelper", UrlHelper.INSTANCE);
+		context.put("tasks", model.getTasks());
+		context.put("baseDir", "");
+		ContentHasher graphFingerprint = new ContentHasher().update(commonHash);
+		for (LinkedTask task : model.getTasks()){
+			graphFingerprint.update(task.getTask().getName());
+			graphFingerprint.update(Boolean.toString(task.getTiming() != null && task.getTiming().isCritical()));
+			hashParentNames(graphFingerprint, task);
+		}
+		pages.add(new Page("index.html", graphTemplate, context, graphFingerprint.hex(), null));
+
+		// Graph analysis
+		Template analysisTemplate = ve.getTemplate("templates/dagAnalysis.vm");
+		context = new VelocityContext();
+		context.put("urlHelper", UrlHelper.INSTANCE);
+		context.put("analysis", analysis);
+		context.put("resources", model.getResources());
+		context.put("baseDir", "");
+		pages.add(new Page("analysis.html", analysisTemplate, context,
+				new ContentHasher().update(commonHash).update(mapper.writeValueAsString(analysis)).hex(), null));
+
+		render(model, pages);
+	}
+
+	public int getRendered(){
+		return rendered;
+	}
+
+	public int getUnchanged(){
+		return unchanged;
+	}
+
+	private void render(final BatchModel model, List<Page> pages) throws Exception {
+		File fingerprintsFile = new File(reportDir, FINGERPRINTS_FILE);
+		Map<String, String> previous = readFingerprints(fingerprintsFile);
+		Map<String, String> current = new TreeMap<>();
+		List<Page> changed = new ArrayList<>();
+		for (Page page : pages){
+			current.put(page.path, page.fingerprint);
+			if (page.fingerprint.equals(previous.get(page.path)) && page.file().isFile()){
+				unchanged++;
+			} else {
+				changed.add(page);
+			}
+		}
+		rendered = changed.size();
+
+		// Removed first so a stale page can never be mistaken for a current one
+		fingerprintsFile.delete();
+		deleteStalePages(reportDir, current);
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+		try {
+			List<Future<Void>> futures = new ArrayList<>();
+			for (final Page page : changed){
+				futures.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						page.render(model);
+						return null;
+					}
+				}));
+			}
+			for (Future<Void> future : futures){
+				future.get();
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		mapper.writeValue(fingerprintsFile, current);
+	}
+
+	private Map<String, String> readFingerprints(File fingerprintsFile){
+		if (fingerprintsFile.isFile()){
+			try {
+				return mapper.readValue(fingerprintsFile, TypeFactory.defaultInstance()
+						.constructMapType(HashMap.class, String.class, String.class));
+			} catch (IOException e) {
+				// Render everything
+			}
+		}
+		return new HashMap<>();
+	}
+
+	/**
+	 * Deletes every file under the report dir that is not one of the current pages
+	 * @return true if the dir is left empty
+	 */
+	private boolean deleteStalePages(File dir, Map<String, String> current) throws IOException{
+		File[] files = dir.listFiles();
+		if (files == null){
+			return true;
+		}
+		boolean empty = true;
+		for (File file : files){
+			if (file.isDirectory()){
+				if (deleteStalePages(file, current)){
+					FileUtils.deleteDirectory(file);
+				} else {
+					empty = false;
+				}
+			} else if (current.containsKey(relativePath(file))){
+				empty = false;
+			} else {
+				file.delete();
+			}
+		}
+		return empty;
+	}
+
+	private String relativePath(File file){
+		return reportDir.toURI().relativize(file.toURI()).getPath();
+	}
+
+	private static void hashTemplate(ContentHasher hasher, String template) throws IOException{
+		InputStream in = ReportGenerator.class.getClassLoader().getResourceAsStream("templates/" + template);
+		try {
+			hasher.update(IOUtils.toByteArray(in));
+		} finally {
+			in.close();
+		}
+	}
+
+	private static void hashTree(ContentHasher hasher, TreeNode<String> node){
+		hasher.update(node.toString()).update(node.getItem());
+		for (TreeNode<String> child : node.getChildren()){
+			hashTree(hasher, child);
+		}
+		// Marks the end of the children so differently shaped trees hash differently
+		hasher.update("");
+	}
+
+	private static void hashParentNames(ContentHasher hasher, LinkedTask task){
+		// Parents are a hash set, sorted so the fingerprint does not depend on their order
+		List<String> names = new ArrayList<>();
+		for (LinkedTask parent : task.getParents()){
+			names.add(parent.getTask().getName());
+		}
+		Collections.sort(names);
+		for (String name : names){
+			hasher.update(name);
+		}
+		hasher.update("");
+	}
+
+	private static void hashTaskNames(ContentHasher hasher, Collection<Task> tasks){
+		for (Task task : tasks){
+			hasher.update(task.getName());
+		}
+		hasher.update("");
+	}
+
+	private class Page {
+		private final String path;
+		private final Template template;
+		private final VelocityContext context;
+		private final String fingerprint;
+		// Source shown on the page, only read when the page is rendered
+		private final SourceHolder source;
+
+		private Page(String path, Template template, VelocityContext context, String fingerprint, SourceHolder source) {
+			this.path = path;
+			this.template = template;
+			this.context = context;
+			this.fingerprint = fingerprint;
+			this.source = source;
+		}
+
+		private File file(){
+			return new File(reportDir, path);
+		}
+
+		private void render(BatchModel model) throws IOException {
+			if (source != null){
+				context.put("source", model.getSource(source));
+			}
+			File file = file();
+			file.getParentFile().mkdirs();
+			FileWriter writer = new FileWriter(file);
+			try {
+				template.merge(context, writer);
+			} finally {
+				writer.close();
+			}
+		}
+	}
+}
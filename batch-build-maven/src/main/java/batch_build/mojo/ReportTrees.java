@@ -0,0 +1,50 @@
+package batch_build.mojo;
+
+import java.util.Collection;
+import java.util.List;
+
+import batch_build.common.model.resources.HCatResource;
+import batch_build.common.model.resources.Resource;
+import batch_build.common.model.tasks.LinkedTask;
+import batch_build.mojo.utils.TreeNode;
+
+/**
+ * The navigation trees of the reports, written once to nav.js, each leaf holding the url of its page
+ */
+public class ReportTrees {
+
+	private ReportTrees(){}
+
+	/**
+	 * Tasks by the directories of their names, in model order
+	 */
+	public static TreeNode<String> tasks(List<LinkedTask> tasks){
+		TreeNode<String> tasksRoot = new TreeNode<String>(null, "Tasks");
+		for (LinkedTask t : tasks){
+			TreeNode<String> node = tasksRoot;
+			String taskName = t.getTask().getName();
+			String[] pathComponents = taskName.split("/");
+			for (String pathComponent : pathComponents){
+				node = node.getOrCreateChild(pathComponent);
+			}
+			node.setItem(UrlHelper.INSTANCE.urlFromTaskName(taskName));
+		}
+		return tasksRoot;
+	}
+
+	/**
+	 * HCat tables by database, sorted by name
+	 */
+	public static TreeNode<String> tables(Collection<Resource> resources){
+		TreeNode<String> tablesRoot = new TreeNode<String>(null, "HCat Tables");
+		for (Resource r : resources){
+			if (r instanceof HCatResource){
+				HCatResource table = (HCatResource) r;
+				TreeNode<String> dbNode = tablesRoot.getOrCreateChild(table.getDbName());
+				dbNode.addChild(new TreeNode<>(UrlHelper.INSTANCE.urlFromResource(table), table.getTableName()));
+			}
+		}
+		tablesRoot.sortChildren(true);
+		return tablesRoot;
+	}
+}
@@ -0,0 +1,200 @@
+package batch_build.mojo;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.plugins.annotations.ResolutionScope;
+import org.apache.maven.project.MavenProject;
+
+import batch_build.common.model.BatchModel;
+import batch_build.common.model.tasks.CriticalPath;
+import batch_build.common.model.tasks.LinkedTask;
+import batch_build.common.model.tasks.PigTask;
+import batch_build.common.model.tasks.RuntimeHistory;
+import batch_build.mojo.DagExecutor.Status;
+import batch_build.mojo.DagExecutor.TaskRun;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Runs the compiled task graph against a local hive, with the tables created the same
+ * way compile creates them. Meant for end to end test runs before deploying. Pig tasks
+ * are only parsed for lineage, there is no HCatLoader/HCatStorer to run them with, so a
+ * model with any pig tasks is refused before anything runs.
+ */
+@Mojo(requiresProject = true, name = "run", requiresDependencyResolution = ResolutionScope.COMPILE)
+public class RunMojo extends AbstractMojo {
+
+	// Separate from compile's tmp dir so a run never touches the explain metastore
+	@Parameter(defaultValue = "${project.build.directory}/run-tmp", readonly = true, required = true)
+	private File tmpDir;
+
+	@Parameter(defaultValue = "${project.build.directory}/model.json", readonly = true, required = true)
+	private File modelFile;
+
+	@Parameter(defaultValue = "${basedir}/tables", readonly = true, required = true)
+	private File tablesDir;
+
+	/**
+	 * Dependencies, as groupId:artifactId, whose tables/ DDL is used along with the project's own
+	 */
+	@Parameter(property = "batch.tableArtifacts")
+	private List<String> tableArtifacts;
+
+	@Parameter(defaultValue = "${project.build.directory}/table-index.json", readonly = true, required = true)
+	private File tableIndexFile;
+
+	@Parameter(defaultValue = "${project.build.directory}/run-report.json", readonly = true, required = true)
+	private File runReportFile;
+
+	@Parameter(defaultValue = "${project.build.directory}/metastore-snapshot", readonly = true, required = true)
+	private File metastoreSnapshotDir;
+
+	/**
+	 * Restore the metastore from a snapshot instead of re-running the table DDL when it is unchanged
+	 */
+	@Parameter(property = "batch.metastoreSnapshot", defaultValue = "true")
+	private boolean useMetastoreSnapshot;
+
+	/**
+	 * Number of tasks run concurrently
+	 */
+	@Parameter(property = "batch.runThreads", defaultValue = "4")
+	private int runThreads;
+
+	@Parameter(property = "batch.runtimeHistory", defaultValue = "${basedir}/runtime-history.json")
+	private File runtimeHistoryFile;
+
+	/**
+	 * Write the runtimes of successful tasks to the runtime history
+	 */
+	@Parameter(property = "batch.recordRuntimes", defaultValue = "false")
+	private boolean recordRuntimes;
+
+	@Parameter(defaultValue = "${plugin.artifacts}", readonly = true, required = true)
+	private List<Artifact> pluginArtifacts;
+
+	@Parameter(defaultValue = "${plugin.pluginArtifact}", readonly = true, required = true)
+	private Artifact pluginArtifact;
+
+	@Parameter(defaultValue = "${project}", required=true)
+	private MavenProject project;
+
+	public void execute() throws MojoExecutionException, MojoFailureException {
+		try {
+			final BatchModel model = BatchModel.read(modelFile);
+			// Refused up front, failing them part way would leave tables half written
+			List<String> pigTasks = new ArrayList<>();
+			for (LinkedTask task : model.getTasks()){
+				if (task.getTask() instanceof PigTask){
+					pigTasks.add(task.getName());
+				}
+			}
+			if (!pigTasks.isEmpty()){
+				throw new MojoFailureException("Running pig tasks is not supported, remove "
+						+ pigTasks + " to run the rest");
+			}
+			Map<String, Double> history = RuntimeHistory.read(runtimeHistoryFile);
+			if (!history.isEmpty()){
+				// Orders ready tasks by their longest remaining chain
+				CriticalPath.analyze(model.getTasks(), history);
+			}
+
+			FileUtils.deleteDirectory(tmpDir);
+			List<String> classpathElements = project.getCompileClasspathElements();
+			HiveEnvironment.setupClassLoader(classpathElements);
+			HiveEnvironment.setupHadoop(tmpDir);
+			// Map reduce jobs run in child jvms that need the same classpath as the plugin
+			List<String> classpath = new ArrayList<>();
+			classpath.add(pluginArtifact.getFile().getAbsolutePath());
+			for (Artifact artifact : pluginArtifacts){
+				classpath.add(artifact.getFile().getAbsolutePath());
+			}
+			classpath.addAll(classpathElements);
+			HiveEnvironment.setupHadoopLauncher(tmpDir, classpath);
+			TableDdl tableDdl = TableDdl.discover(tablesDir, CompileMojo.tableArtifactFiles(project, tableArtifacts), tableIndexFile, getLog());
+			final HiveEnvironment hive = new HiveEnvironment(tableDdl, useMetastoreSnapshot ? metastoreSnapshotDir : null);
+			hive.createHiveTables();
+			HiveEnvironment.disableExplainHook();
+
+			getLog().info("Running " + model.getTasks().size() + " tasks on " + runThreads + " threads");
+			long start = System.currentTimeMillis();
+			List<TaskRun> runs = new DagExecutor(model.getTasks(), runThreads).execute(new DagExecutor.TaskRunner() {
+				@Override
+				public void run(LinkedTask task) throws Exception {
+					hive.run(task.getName(), model.getSource(task.getTask()));
+				}
+			});
+			long wallTime = System.currentTimeMillis() - start;
+
+			report(model, runs, wallTime, history);
+			new ObjectMapper().writer().withDefaultPrettyPrinter().writeValue(runReportFile, runs);
+
+			List<String> failed = new ArrayList<>();
+			for (TaskRun run : runs){
+				if (run.getStatus() == Status.FAILED){
+					failed.add(run.getName());
+				}
+			}
+			if (!failed.isEmpty()){
+				throw new RuntimeException("Failed tasks " + failed + ", see " + runReportFile);
+			}
+		} catch (MojoFailureException e) {
+			// A model run cannot handle, not a problem running it
+			throw e;
+		} catch (Throwable e) {
+			throw new MojoExecutionException("Problem running mojo", e);
+		}
+	}
+
+	private void report(BatchModel model, List<TaskRun> runs, long wallTime, Map<String, Double> history) throws Exception {
+		List<TaskRun> byStart = new ArrayList<>(runs);
+		Collections.sort(byStart, new Comparator<TaskRun>() {
+			@Override
+			public int compare(TaskRun a, TaskRun b) {
+				// Skipped tasks never started, they go last
+				if ((a.getStatus() == Status.SKIPPED) != (b.getStatus() == Status.SKIPPED)){
+					return a.getStatus() == Status.SKIPPED ? 1 : -1;
+				}
+				return Long.compare(a.getStart(), b.getStart());
+			}
+		});
+		Map<String, Double> durations = new HashMap<>();
+		long taskTime = 0;
+		getLog().info(String.format("%9s %9s  %-9s  %s", "start", "duration", "status", "task"));
+		for (TaskRun run : byStart){
+			if (run.getStatus() == Status.SKIPPED){
+				getLog().info(String.format("%9s %9s  %-9s  %s", "-", "-", run.getStatus(), run.getName()));
+				continue;
+			}
+			getLog().info(String.format("%8.1fs %8.1fs  %-9s  %s", run.getStart() / 1000.0,
+					run.getDuration() / 1000.0, run.getStatus(), run.getName()));
+			taskTime += run.getDuration();
+			if (run.getStatus() == Status.SUCCEEDED){
+				durations.put(run.getName(), run.getDuration() / 1000.0);
+			}
+		}
+		// Timings recalculated from this run, the shortest the run could have been with enough threads
+		double criticalPath = CriticalPath.analyze(model.getTasks(), durations);
+		getLog().info(String.format("Ran in %.1fs, %.1fs of task time, critical path %.1fs",
+				wallTime / 1000.0, taskTime / 1000.0, criticalPath));
+
+		if (recordRuntimes && !durations.isEmpty()){
+			history.putAll(durations);
+			RuntimeHistory.write(runtimeHistoryFile, history);
+			getLog().info("Recorded " + durations.size() + " runtimes in " + runtimeHistoryFile);
+		}
+	}
+}
@@ -0,0 +1,252 @@
+package batch_build.mojo;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.hadoop.hive.common.FileUtils;
+import org.apache.hadoop.hive.metastore.api.FieldSchema;
+import org.apache.hadoop.hive.ql.exec.ColumnInfo;
+import org.apache.hadoop.hive.ql.exec.FilterOperator;
+import org.apache.hadoop.hive.ql.exec.Operator;
+import org.apache.hadoop.hive.ql.exec.TableScanOperator;
+import org.apache.hadoop.hive.ql.hooks.LineageInfo.BaseColumnInfo;
+import org.apache.hadoop.hive.ql.hooks.LineageInfo.Dependency;
+import org.apache.hadoop.hive.ql.optimizer.lineage.LineageCtx.Index;
+import org.apache.hadoop.hive.ql.plan.ExprNodeColumnDesc;
+import org.apache.hadoop.hive.ql.plan.ExprNodeConstantDesc;
+import org.apache.hadoop.hive.ql.plan.ExprNodeDesc;
+import org.apache.hadoop.hive.ql.plan.ExprNodeGenericFuncDesc;
+import org.apache.hadoop.hive.ql.session.SessionState;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDFIn;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDFOPAnd;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDFOPEqual;
+
+/**
+ * The partitions of partitioned tables a hive statement reads. Scripts are explained against
+ * empty tables so hive's partition pruning finds nothing, instead the filters straight after
+ * each table scan are searched for partition keys compared to constants, with = or IN. The
+ * partitions are given as key=value/... specs in the order of the table's keys, leaving out
+ * keys that are not filtered on.
+ */
+class ScannedPartitions {
+
+	// More combinations than this and the table is taken as read whole
+	private static final int MAX_SPECS = 1000;
+
+	private ScannedPartitions(){}
+
+	/**
+	 * @return resource id to the partitions read, tables read whole are left out
+	 */
+	static Map<String, Set<String>> find(){
+		Index index = ColumnLineage.index(SessionState.get().getLineageState());
+		Map<String, Set<String>> partitions = new HashMap<>();
+		Set<String> whole = new TreeSet<>();
+		if (index == null){
+			return partitions;
+		}
+		for (Operator<?> operator : scans(index)){
+			org.apache.hadoop.hive.metastore.api.Table table = table(operator, index);
+			if (table == null || table.getPartitionKeys() == null || table.getPartitionKeys().isEmpty()){
+				continue;
+			}
+			String resource = "hcat:" + table.getDbName() + "." + table.getTableName();
+			Set<String> specs = specs(operator, table, index);
+			if (specs == null){
+				whole.add(resource);
+			} else if (partitions.containsKey(resource)){
+				partitions.get(resource).addAll(specs);
+			} else {
+				partitions.put(resource, specs);
+			}
+		}
+		partitions.keySet().removeAll(whole);
+		return partitions;
+	}
+
+	/**
+	 * The partitions read through every branch below the scan, null if any branch reads them all
+	 */
+	private static Set<String> specs(Operator<?> scan, org.apache.hadoop.hive.metastore.api.Table table, Index index){
+		if (scan.getChildOperators() == null || scan.getChildOperators().isEmpty()){
+			return null;
+		}
+		Set<String> specs = new TreeSet<>();
+		for (Operator<?> child : scan.getChildOperators()){
+			// Key to the values it is limited to, by the filters one after another below the scan
+			Map<String, Set<String>> values = new HashMap<>();
+			Operator<?> operator = child;
+			while (operator instanceof FilterOperator){
+				for (ExprNodeDesc conjunct : conjuncts(((FilterOperator) operator).getConf().getPredicate())){
+					limit(operator, conjunct, table, index, values);
+				}
+				operator = operator.getChildOperators() != null && operator.getChildOperators().size() == 1
+						? operator.getChildOperators().get(0) : null;
+			}
+			List<String> branchSpecs = combine(table.getPartitionKeys(), values);
+			if (branchSpecs == null){
+				return null;
+			}
+			specs.addAll(branchSpecs);
+		}
+		return specs;
+	}
+
+	private static List<ExprNodeDesc> conjuncts(ExprNodeDesc predicate){
+		if (predicate instanceof ExprNodeGenericFuncDesc
+				&& ((ExprNodeGenericFuncDesc) predicate).getGenericUDF() instanceof GenericUDFOPAnd){
+			List<ExprNodeDesc> conjuncts = new ArrayList<>();
+			for (ExprNodeDesc child : predicate.getChildren()){
+				conjuncts.addAll(conjuncts(child));
+			}
+			return conjuncts;
+		}
+		return Collections.singletonList(predicate);
+	}
+
+	/**
+	 * Narrows down the values of a partition key when the conjunct is key = constant or
+	 * key IN (constants), anything else is ignored
+	 */
+	private static void limit(Operator<?> filter, ExprNodeDesc conjunct, org.apache.hadoop.hive.metastore.api.Table table,
+			Index index, Map<String, Set<String>> values){
+		if (!(conjunct instanceof ExprNodeGenericFuncDesc)){
+			return;
+		}
+		Object udf = ((ExprNodeGenericFuncDesc) conjunct).getGenericUDF();
+		List<ExprNodeDesc> children = conjunct.getChildren();
+		if (!(udf instanceof GenericUDFOPEqual || udf instanceof GenericUDFIn) || children.size() < 2){
+			return;
+		}
+		ExprNodeDesc column = children.get(0);
+		List<ExprNodeDesc> constants = children.subList(1, children.size());
+		if (udf instanceof GenericUDFOPEqual && children.get(1) instanceof ExprNodeColumnDesc){
+			column = children.get(1);
+			constants = children.subList(0, 1);
+		}
+		if (!(column instanceof ExprNodeColumnDesc)){
+			return;
+		}
+		String key = partitionKey(filter, ((ExprNodeColumnDesc) column).getColumn(), table, index);
+		if (key == null){
+			return;
+		}
+		Set<String> allowed = new TreeSet<>();
+		for (ExprNodeDesc constant : constants){
+			if (!(constant instanceof ExprNodeConstantDesc) || ((ExprNodeConstantDesc) constant).getValue() == null){
+				return;
+			}
+			allowed.add(((ExprNodeConstantDesc) constant).getValue().toString());
+		}
+		if (values.containsKey(key)){
+			values.get(key).retainAll(allowed);
+		} else {
+			values.put(key, allowed);
+		}
+	}
+
+	/**
+	 * The partition key of the table the column passed into the filter is, or null
+	 */
+	private static String partitionKey(Operator<?> filter, String column, org.apache.hadoop.hive.metastore.api.Table table, Index index){
+		Dependency dependency = ColumnLineage.dependency(filter.getParentOperators().get(0), column, index);
+		if (dependency == null || dependency.getBaseCols().size() != 1){
+			return null;
+		}
+		BaseColumnInfo base = dependency.getBaseCols().get(0);
+		org.apache.hadoop.hive.metastore.api.Table baseTable = base.getTabAlias().getTable();
+		if (base.getColumn() == null || !baseTable.getDbName().equals(table.getDbName())
+				|| !baseTable.getTableName().equals(table.getTableName())){
+			return null;
+		}
+		for (FieldSchema key : table.getPartitionKeys()){
+			if (key.getName().equals(base.getColumn().getName())){
+				return key.getName();
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Every combination of the key values, null when there are no keys to go on or too many
+	 */
+	private static List<String> combine(List<FieldSchema> keys, Map<String, Set<String>> values){
+		Map<String, Set<String>> ordered = new LinkedHashMap<>();
+		int count = 1;
+		for (FieldSchema key : keys){
+			Set<String> keyValues = values.get(key.getName());
+			if (keyValues != null){
+				ordered.put(key.getName(), keyValues);
+				count *= keyValues.size();
+			}
+		}
+		// No values left means the filter cannot match, but reading it all is the safe side
+		if (ordered.isEmpty() || count == 0 || count > MAX_SPECS){
+			return null;
+		}
+		List<List<String>> combinations = new ArrayList<>();
+		combinations.add(new ArrayList<String>());
+		for (Set<String> keyValues : ordered.values()){
+			List<List<String>> next = new ArrayList<>();
+			for (List<String> combination : combinations){
+				for (String value : keyValues){
+					List<String> extended = new ArrayList<>(combination);
+					extended.add(value);
+					next.add(extended);
+				}
+			}
+			combinations = next;
+		}
+		List<String> specs = new ArrayList<>();
+		for (List<String> combination : combinations){
+			specs.add(FileUtils.makePartName(new ArrayList<>(ordered.keySet()), combination));
+		}
+		return specs;
+	}
+
+	/**
+	 * The table scans of the statement. Taken from the lineage index rather than the plan, as
+	 * hive leaves scans that find no partitions out of the plan altogether
+	 */
+	@SuppressWarnings("unchecked")
+	private static List<Operator<?>> scans(Index index){
+		Map<Operator<?>, ?> dependencies;
+		try {
+			Field field = Index.class.getDeclaredField("depMap");
+			field.setAccessible(true);
+			dependencies = (Map<Operator<?>, ?>) field.get(index);
+		} catch (NoSuchFieldException | IllegalAccessException e) {
+			return Collections.emptyList();
+		}
+		List<Operator<?>> scans = new ArrayList<>();
+		for (Operator<?> operator : dependencies.keySet()){
+			if (operator instanceof TableScanOperator){
+				scans.add(operator);
+			}
+		}
+		return scans;
+	}
+
+	/**
+	 * The table scanned, found through the lineage of its columns
+	 */
+	private static org.apache.hadoop.hive.metastore.api.Table table(Operator<?> scan, Index index){
+		if (scan.getSchema() == null){
+			return null;
+		}
+		for (ColumnInfo info : scan.getSchema().getSignature()){
+			Dependency dependency = index.getDependency(scan, info);
+			if (dependency != null && !dependency.getBaseCols().isEmpty()){
+				return dependency.getBaseCols().get(0).getTabAlias().getTable();
+			}
+		}
+		return null;
+	}
+}
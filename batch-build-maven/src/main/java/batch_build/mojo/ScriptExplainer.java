@@ -0,0 +1,14 @@
+package batch_build.mojo;
+
+/**
+ * Something that can explain scripts: hive ones through an in process
+ * {@link HiveEnvironment} or a compile daemon holding one, pig ones through
+ * a {@link batch_build.mojo.pig.PigExplainer}
+ */
+public interface ScriptExplainer {
+
+	/**
+	 * Safe to call from several threads at once
+	 */
+	ExplainResult explain(String taskName, String source) throws Exception;
+}
@@ -0,0 +1,234 @@
+package batch_build.mojo;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.maven.plugin.logging.Log;
+
+import batch_build.common.utils.ContentHasher;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * The table DDL files, tables/&lt;db&gt;/&lt;table&gt;.hql from the project's tables dir and from
+ * any dependencies that share their DDL. Hashes are kept in an index file so an unchanged
+ * jar is not opened and an unchanged file not read just to find out the tables are the same.
+ */
+public class TableDdl {
+
+	// Bump when the index contents change meaning
+	private static final String FORMAT_VERSION = "1";
+
+	private static final String TABLES_PREFIX = "tables/";
+
+	@Getter
+	@Setter
+	private static class IndexedFile {
+		private String location;
+		private long lastModified;
+		private long length;
+		private String hash;
+	}
+
+	/**
+	 * A tables dir or a jar, the jar is only checked as a whole
+	 */
+	@Getter
+	@Setter
+	private static class IndexedSource {
+		private long lastModified;
+		private long length;
+		private Map<String, IndexedFile> files = new TreeMap<>();
+	}
+
+	@Getter
+	@Setter
+	private static class Index {
+		private String formatVersion;
+		private Map<String, IndexedSource> sources = new TreeMap<>();
+		private Map<String, IndexedFile> tables = new TreeMap<>();
+	}
+
+	// By db/file name
+	private final Map<String, IndexedFile> tables;
+	@Getter
+	private final String hash;
+	@Getter
+	private int hashed;
+
+	private TableDdl(Map<String, IndexedFile> tables) {
+		this.tables = tables;
+		// Same as hashing the classpath resources used to be, so existing snapshots stay valid
+		ContentHasher hasher = new ContentHasher();
+		for (Map.Entry<String, IndexedFile> table : tables.entrySet()){
+			hasher.update(table.getKey()).update(table.getValue().getHash());
+		}
+		this.hash = hasher.hex();
+	}
+
+	/**
+	 * Finds the DDL and updates the index. A file in the tables dir replaces one with the
+	 * same name from a dependency, between dependencies the later one wins.
+	 * @param artifacts jars or directories with a tables folder at their root
+	 * @param log where an unreadable index is warned about
+	 */
+	public static TableDdl discover(File tablesDir, List<File> artifacts, File indexFile, Log log) throws IOException {
+		Index previous = readIndex(indexFile, log);
+		Index index = new Index();
+		index.setFormatVersion(FORMAT_VERSION);
+		int hashed = 0;
+		for (File artifact : artifacts){
+			IndexedSource source;
+			if (artifact.isDirectory()){
+				source = walk(new File(artifact, "tables"), previous.getSources().get(artifact.getAbsolutePath()));
+			} else {
+				source = scanJar(artifact, previous.getSources().get(artifact.getAbsolutePath()));
+			}
+			index.getSources().put(artifact.getAbsolutePath(), source);
+			index.getTables().putAll(source.getFiles());
+		}
+		IndexedSource own = walk(tablesDir, previous.getSources().get(tablesDir.getAbsolutePath()));
+		index.getSources().put(tablesDir.getAbsolutePath(), own);
+		index.getTables().putAll(own.getFiles());
+
+		// Unchanged entries are carried over as the same objects
+		for (Map.Entry<String, IndexedSource> source : index.getSources().entrySet()){
+			IndexedSource before = previous.getSources().get(source.getKey());
+			for (Map.Entry<String, IndexedFile> file : source.getValue().getFiles().entrySet()){
+				if (before == null || before.getFiles().get(file.getKey()) != file.getValue()){
+					hashed++;
+				}
+			}
+		}
+		indexFile.getParentFile().mkdirs();
+		new ObjectMapper().writeValue(indexFile, index);
+		TableDdl ddl = new TableDdl(index.getTables());
+		ddl.hashed = hashed;
+		return ddl;
+	}
+
+	/**
+	 * The DDL as of the last {@link #discover}, for the compile daemon
+	 */
+	public static TableDdl load(File indexFile) throws IOException {
+		Index index = new ObjectMapper().readValue(indexFile, Index.class);
+		return new TableDdl(index.getTables());
+	}
+
+	private static Index readIndex(File indexFile, Log log){
+		if (indexFile.isFile()){
+			try {
+				Index index = new ObjectMapper().readValue(indexFile, Index.class);
+				if (FORMAT_VERSION.equals(index.getFormatVersion())){
+					return index;
+				}
+			} catch (IOException e) {
+				log.warn("Ignoring unreadable table index " + indexFile + ": " + e.getMessage());
+			}
+		}
+		return new Index();
+	}
+
+	private static IndexedSource walk(File tablesDir, IndexedSource previous) throws IOException {
+		IndexedSource source = new IndexedSource();
+		File[] dbDirs = tablesDir.listFiles();
+		if (dbDirs == null){
+			return source;
+		}
+		Arrays.sort(dbDirs);
+		for (File dbDir : dbDirs){
+			File[] files = dbDir.listFiles();
+			if (files == null){
+				continue;
+			}
+			Arrays.sort(files);
+			for (File file : files){
+				if (!file.isFile() || !file.getName().endsWith(".hql")){
+					continue;
+				}
+				String name = dbDir.getName() + "/" + file.getName();
+				IndexedFile indexed = previous != null ? previous.getFiles().get(name) : null;
+				String location = file.toURI().toString();
+				if (indexed == null || !indexed.getLocation().equals(location)
+						|| indexed.getLastModified() != file.lastModified() || indexed.getLength() != file.length()){
+					indexed = new IndexedFile();
+					indexed.setLocation(location);
+					indexed.setLastModified(file.lastModified());
+					indexed.setLength(file.length());
+					indexed.setHash(ContentHasher.sha1(file));
+				}
+				source.getFiles().put(name, indexed);
+			}
+		}
+		return source;
+	}
+
+	private static IndexedSource scanJar(File jar, IndexedSource previous) throws IOException {
+		if (previous != null && previous.getLastModified() == jar.lastModified() && previous.getLength() == jar.length()){
+			return previous;
+		}
+		IndexedSource source = new IndexedSource();
+		source.setLastModified(jar.lastModified());
+		source.setLength(jar.length());
+		try (JarFile jarFile = new JarFile(jar)) {
+			Enumeration<JarEntry> entries = jarFile.entries();
+			while (entries.hasMoreElements()){
+				JarEntry entry = entries.nextElement();
+				String[] path = entry.getName().split("/");
+				// Only tables/<db>/<table>.hql
+				if (entry.isDirectory() || path.length != 3 || !entry.getName().startsWith(TABLES_PREFIX)
+						|| !entry.getName().endsWith(".hql")){
+					continue;
+				}
+				IndexedFile indexed = new IndexedFile();
+				indexed.setLocation("jar:" + jar.toURI() + "!/" + entry.getName());
+				indexed.setLastModified(entry.getTime());
+				indexed.setLength(entry.getSize());
+				try (InputStream in = jarFile.getInputStream(entry)) {
+					indexed.setHash(ContentHasher.sha1(IOUtils.toString(in, "UTF-8")));
+				}
+				source.getFiles().put(path[1] + "/" + path[2], indexed);
+			}
+		}
+		return source;
+	}
+
+	/**
+	 * db/file names, sorted
+	 */
+	public Set<String> getNames(){
+		return tables.keySet();
+	}
+
+	/**
+	 * Hash of one DDL file's text, as {@link ContentHasher#sha1(String)} of what {@link #read} returns.
+	 * DDL is read as UTF-8 everywhere so this is also the hash of the file's bytes
+	 */
+	public String hashOf(String name){
+		return tables.get(name).getHash();
+	}
+
+	public String read(String name) throws IOException {
+		URLConnection connection = new URL(tables.get(name).getLocation()).openConnection();
+		// Cached jar connections keep the jar open
+		connection.setUseCaches(false);
+		try (InputStream in = connection.getInputStream()) {
+			return IOUtils.toString(in, "UTF-8");
+		}
+	}
+}
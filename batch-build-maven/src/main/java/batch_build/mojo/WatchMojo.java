@@ -0,0 +1,114 @@
+package batch_build.mojo;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.plugins.annotations.ResolutionScope;
+
+/**
+ * Compiles once and then keeps hive running, recompiling whatever changes under the tasks
+ * and tables dirs until stopped. Only the changed scripts, or the scripts using changed
+ * tables, are explained again and only the report pages that change are rewritten.
+ */
+@Mojo(requiresProject = true, name = "watch", requiresDependencyResolution = ResolutionScope.COMPILE)
+public class WatchMojo extends CompileMojo {
+
+	/**
+	 * Milliseconds without further changes before recompiling, editors often save in several steps
+	 */
+	@Parameter(property = "batch.watchQuietPeriod", defaultValue = "300")
+	private int quietPeriod;
+
+	@Override
+	public void execute() throws MojoExecutionException {
+		try {
+			// The tables get recreated in place so this needs its own hive rather than the daemon's
+			compile(false);
+			writeOutputs();
+			watch();
+		} catch (Throwable e) {
+			throw new MojoExecutionException("Problem running mojo", e);
+		} finally {
+			shutdown();
+		}
+	}
+
+	private void watch() throws IOException, InterruptedException {
+		try (WatchService watcher = FileSystems.getDefault().newWatchService()) {
+			Map<WatchKey, Path> dirs = new HashMap<>();
+			register(watcher, dirs, getTasksDir().toPath());
+			register(watcher, dirs, getTablesDir().toPath());
+			getLog().info("Watching " + getTasksDir() + " and " + getTablesDir() + ", ctrl-c to stop");
+			while (true){
+				WatchKey key = watcher.take();
+				Set<File> changed = new LinkedHashSet<>();
+				do {
+					Path dir = dirs.get(key);
+					for (WatchEvent<?> event : key.pollEvents()){
+						if (event.kind() == OVERFLOW){
+							changed.add(getTasksDir());
+							changed.add(getTablesDir());
+							continue;
+						}
+						Path path = dir.resolve((Path) event.context());
+						if (event.kind() == ENTRY_CREATE && Files.isDirectory(path)){
+							register(watcher, dirs, path);
+						}
+						changed.add(path.toFile());
+					}
+					if (!key.reset()){
+						dirs.remove(key);
+					}
+					key = watcher.poll(quietPeriod, TimeUnit.MILLISECONDS);
+				} while (key != null);
+
+				long start = System.currentTimeMillis();
+				try {
+					update(changed);
+					writeOutputs();
+					getLog().info("Updated in " + (System.currentTimeMillis() - start) + "ms");
+				} catch (Exception e) {
+					getLog().error("Update failed, watching for the next change", e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Watches the dir and everything under it, missing dirs are skipped
+	 */
+	private static void register(final WatchService watcher, final Map<WatchKey, Path> dirs, Path root) throws IOException {
+		if (!Files.isDirectory(root)){
+			return;
+		}
+		Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+				dirs.put(dir.register(watcher, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), dir);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+}
@@ -0,0 +1,195 @@
+package batch_build.mojo.daemon;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.maven.plugin.logging.Log;
+
+import batch_build.common.model.resources.HCatResource;
+import batch_build.mojo.ExplainResult;
+import batch_build.mojo.ScriptExplainer;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Talks to a compile daemon, starting a new one when there is none running
+ * or the running one was started for a different classpath or table DDL. A daemon
+ * that does not answer in time, e.g. stuck in a hung hive session, is told to exit
+ * by removing its info file and the next build starts a new one.
+ */
+public class DaemonClient implements ScriptExplainer {
+
+	private static final long STARTUP_TIMEOUT_MS = TimeUnit.MINUTES.toMillis(10);
+	private static final int CONNECT_TIMEOUT_MS = 2000;
+	// Far longer than explaining any one script takes
+	private static final int EXPLAIN_TIMEOUT_MS = (int) TimeUnit.MINUTES.toMillis(10);
+	// Table and stop requests are answered straight away by a healthy daemon
+	private static final int CONTROL_TIMEOUT_MS = (int) TimeUnit.SECONDS.toMillis(30);
+
+	private final File daemonDir;
+	private final String key;
+	private final int port;
+	private final ObjectMapper mapper = new ObjectMapper();
+	private List<HCatResource> tables;
+	private String environment;
+
+	private DaemonClient(File daemonDir, String key, int port) {
+		this.daemonDir = daemonDir;
+		this.key = key;
+		this.port = port;
+	}
+
+	/**
+	 * Connects to the daemon for the given key, replacing any daemon started with another key
+	 * @param tableIndexFile the table DDL a new daemon creates, see {@link batch_build.mojo.TableDdl#load}
+	 * @param classpath classpath to start a new daemon with
+	 * @param jvmArgs extra arguments for the daemon jvm
+	 */
+	public static DaemonClient connect(File daemonDir, String key, File tableIndexFile, List<String> classpath,
+			List<String> jvmArgs, int idleTimeoutMinutes, Log log) throws IOException, InterruptedException {
+		File infoFile = new File(daemonDir, ExplainDaemon.INFO_FILE);
+		DaemonInfo info = DaemonInfo.read(infoFile);
+		if (info != null){
+			DaemonClient client = new DaemonClient(daemonDir, key, info.getPort());
+			if (key.equals(info.getKey()) && client.fetchTables()){
+				log.info("Using compile daemon on port " + info.getPort());
+				return client;
+			}
+			log.info("Compile daemon is out of date, replacing it");
+			new DaemonClient(daemonDir, info.getKey(), info.getPort()).stopQuietly();
+			infoFile.delete();
+		}
+
+		log.info("Starting compile daemon, output is in " + new File(daemonDir, ExplainDaemon.LOG_FILE));
+		daemonDir.mkdirs();
+		List<String> command = new ArrayList<>();
+		command.add(new File(new File(System.getProperty("java.home"), "bin"), "java").getAbsolutePath());
+		command.addAll(jvmArgs);
+		command.add("-cp");
+		command.add(StringUtils.join(classpath, File.pathSeparator));
+		command.add(ExplainDaemon.class.getName());
+		command.add(daemonDir.getAbsolutePath());
+		command.add(key);
+		command.add(Integer.toString(idleTimeoutMinutes));
+		command.add(tableIndexFile.getAbsolutePath());
+		Process process = new ProcessBuilder(command)
+				.redirectErrorStream(true)
+				.redirectOutput(new File(daemonDir, ExplainDaemon.LOG_FILE))
+				.start();
+
+		long deadline = System.currentTimeMillis() + STARTUP_TIMEOUT_MS;
+		while (System.currentTimeMillis() < deadline){
+			info = DaemonInfo.read(infoFile);
+			if (info != null && key.equals(info.getKey())){
+				DaemonClient client = new DaemonClient(daemonDir, key, info.getPort());
+				if (client.fetchTables()){
+					return client;
+				}
+			}
+			try {
+				int exitValue = process.exitValue();
+				throw new IOException("Compile daemon exited with " + exitValue + ", see "
+						+ new File(daemonDir, ExplainDaemon.LOG_FILE));
+			} catch (IllegalThreadStateException e) {
+				// Still starting
+			}
+			Thread.sleep(200);
+		}
+		process.destroy();
+		throw new IOException("Timed out waiting for the compile daemon to start");
+	}
+
+	public List<HCatResource> getTables(){
+		return tables;
+	}
+
+	/**
+	 * The environment hash of the hive held by the daemon, see {@link batch_build.mojo.HiveEnvironment#environmentHash()}
+	 */
+	public String getEnvironment(){
+		return environment;
+	}
+
+	@Override
+	public ExplainResult explain(String taskName, String source) throws IOException {
+		DaemonRequest request = new DaemonRequest(DaemonRequest.Type.EXPLAIN, key);
+		request.setTaskName(taskName);
+		request.setSource(source);
+		return send(request, EXPLAIN_TIMEOUT_MS).getExplain();
+	}
+
+	private boolean fetchTables(){
+		try {
+			DaemonResponse response = send(new DaemonRequest(DaemonRequest.Type.TABLES, key), CONTROL_TIMEOUT_MS);
+			tables = response.getTables();
+			environment = response.getEnvironment();
+			return true;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	private void stopQuietly(){
+		try {
+			send(new DaemonRequest(DaemonRequest.Type.STOP, key), CONTROL_TIMEOUT_MS);
+		} catch (IOException e) {
+			// Not running
+		}
+	}
+
+	private DaemonResponse send(DaemonRequest request, int timeoutMs) throws IOException {
+		Socket socket = new Socket();
+		try {
+			socket.connect(new InetSocketAddress("127.0.0.1", port), CONNECT_TIMEOUT_MS);
+			socket.setSoTimeout(timeoutMs);
+			Writer out = new OutputStreamWriter(socket.getOutputStream(), "UTF-8");
+			out.write(mapper.writeValueAsString(request));
+			out.write('\n');
+			out.flush();
+			String line;
+			try {
+				line = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8")).readLine();
+			} catch (SocketTimeoutException e) {
+				retire();
+				throw new IOException("Compile daemon did not answer within " + timeoutMs / 1000 + "s, see "
+						+ new File(daemonDir, ExplainDaemon.LOG_FILE) + ". It has been told to exit and the next build starts a new one", e);
+			}
+			if (line == null){
+				throw new IOException("Compile daemon closed the connection");
+			}
+			DaemonResponse response = mapper.readValue(line, DaemonResponse.class);
+			if (response.isStale()){
+				throw new IOException("Compile daemon is stale");
+			}
+			if (response.getError() != null){
+				throw new RuntimeException("Compile daemon failed: " + response.getError());
+			}
+			return response;
+		} finally {
+			socket.close();
+		}
+	}
+
+	/**
+	 * Removes the daemon's info file, if still its own, which makes the daemon exit at its
+	 * next check however stuck its requests are
+	 */
+	private void retire(){
+		File infoFile = new File(daemonDir, ExplainDaemon.INFO_FILE);
+		DaemonInfo info = DaemonInfo.read(infoFile);
+		if (info != null && info.getPort() == port){
+			infoFile.delete();
+		}
+	}
+}
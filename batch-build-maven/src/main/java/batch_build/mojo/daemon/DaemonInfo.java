@@ -0,0 +1,51 @@
+package batch_build.mojo.daemon;
+
+import java.io.File;
+import java.io.IOException;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Written by a running daemon so clients can find it
+ */
+@Getter
+@Setter
+public class DaemonInfo {
+	private int port;
+	private String key;
+
+	private DaemonInfo(){}
+
+	public DaemonInfo(int port, String key) {
+		this.port = port;
+		this.key = key;
+	}
+
+	public void write(File file) throws IOException{
+		File tmp = new File(file.getPath() + ".tmp");
+		new ObjectMapper().writeValue(tmp, this);
+		if (!tmp.renameTo(file)){
+			file.delete();
+			if (!tmp.renameTo(file)){
+				throw new IOException("Could not write " + file);
+			}
+		}
+	}
+
+	/**
+	 * @return the info or null if there is no (readable) info file
+	 */
+	public static DaemonInfo read(File file){
+		if (!file.isFile()){
+			return null;
+		}
+		try {
+			return new ObjectMapper().readValue(file, DaemonInfo.class);
+		} catch (IOException e) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,29 @@
+package batch_build.mojo.daemon;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * A single request to the compile daemon, sent as one line of json
+ */
+@Getter
+@Setter
+public class DaemonRequest {
+
+	public enum Type {
+		TABLES, EXPLAIN, STOP
+	}
+
+	private Type type;
+	// Key the client expects the daemon to have been started with
+	private String key;
+	private String taskName;
+	private String source;
+
+	private DaemonRequest(){}
+
+	public DaemonRequest(Type type, String key) {
+		this.type = type;
+		this.key = key;
+	}
+}
@@ -0,0 +1,22 @@
+package batch_build.mojo.daemon;
+
+import java.util.List;
+
+import lombok.Getter;
+import lombok.Setter;
+import batch_build.common.model.resources.HCatResource;
+import batch_build.mojo.ExplainResult;
+
+/**
+ * Reply to a {@link DaemonRequest}, sent as one line of json
+ */
+@Getter
+@Setter
+public class DaemonResponse {
+	private String error;
+	// The daemon was started for a different classpath or table DDL and is shutting down
+	private boolean stale;
+	private List<HCatResource> tables;
+	private String environment;
+	private ExplainResult explain;
+}
@@ -0,0 +1,184 @@
+package batch_build.mojo.daemon;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+
+import batch_build.common.model.resources.HCatResource;
+import batch_build.mojo.HiveEnvironment;
+import batch_build.mojo.TableDdl;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Background process that keeps hive and the metastore initialised between
+ * builds. It is started by {@link DaemonClient} with the plugin and project
+ * classpath and answers explain requests over a loopback socket.
+ *
+ * The daemon is tied to the key it was started with (a hash of the classpath
+ * and table DDL), any request with a different key makes it shut down. It also
+ * exits once idle for too long or when its info file is removed or taken over
+ * by another daemon.
+ */
+public class ExplainDaemon {
+
+	public static final String INFO_FILE = "daemon.json";
+	public static final String LOG_FILE = "daemon.log";
+
+	private static final int CHECK_INTERVAL_MS = 10000;
+
+	private final File daemonDir;
+	private final String key;
+	private final long idleTimeoutMs;
+	private final File tableIndexFile;
+	private final ObjectMapper mapper = new ObjectMapper();
+	private HiveEnvironment hive;
+	private List<HCatResource> tables;
+	private String environment;
+	private ServerSocket server;
+	private volatile boolean running = true;
+	private volatile long lastRequest = System.currentTimeMillis();
+
+	public ExplainDaemon(File daemonDir, String key, long idleTimeoutMs, File tableIndexFile) {
+		this.daemonDir = daemonDir;
+		this.key = key;
+		this.idleTimeoutMs = idleTimeoutMs;
+		this.tableIndexFile = tableIndexFile;
+	}
+
+	/**
+	 * args: daemon dir, key, idle timeout in minutes, table index file
+	 */
+	public static void main(String[] args) throws Exception {
+		try {
+			new ExplainDaemon(new File(args[0]), args[1], TimeUnit.MINUTES.toMillis(Long.parseLong(args[2])),
+					new File(args[3])).run();
+		} catch (Throwable e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
+		// Hive leaves non daemon threads behind
+		System.exit(0);
+	}
+
+	public void run() throws Exception {
+		File tmpDir = new File(daemonDir, "tmp");
+		FileUtils.deleteDirectory(tmpDir);
+		HiveEnvironment.setupHadoop(tmpDir);
+		hive = new HiveEnvironment(TableDdl.load(tableIndexFile), new File(daemonDir, "metastore-snapshot"));
+		tables = hive.createHiveTables();
+		environment = hive.environmentHash();
+
+		server = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+		server.setSoTimeout(CHECK_INTERVAL_MS);
+		File infoFile = new File(daemonDir, INFO_FILE);
+		new DaemonInfo(server.getLocalPort(), key).write(infoFile);
+		System.out.println("Compile daemon listening on port " + server.getLocalPort());
+
+		// Each connection gets its own thread and so its own hive session
+		ExecutorService executor = Executors.newCachedThreadPool();
+		try {
+			while (running){
+				try {
+					final Socket socket = server.accept();
+					lastRequest = System.currentTimeMillis();
+					executor.submit(new Runnable() {
+						@Override
+						public void run() {
+							handle(socket);
+						}
+					});
+				} catch (SocketTimeoutException e) {
+					if (System.currentTimeMillis() - lastRequest > idleTimeoutMs){
+						System.out.println("Compile daemon idle, stopping");
+						stop();
+					}
+					DaemonInfo info = DaemonInfo.read(infoFile);
+					if (info == null || info.getPort() != server.getLocalPort() || !key.equals(info.getKey())){
+						System.out.println("Compile daemon replaced, stopping");
+						stop();
+					}
+				} catch (SocketException e) {
+					if (running){
+						throw e;
+					}
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+			DaemonInfo info = DaemonInfo.read(infoFile);
+			if (info != null && info.getPort() == server.getLocalPort()){
+				infoFile.delete();
+			}
+		}
+	}
+
+	private void stop(){
+		running = false;
+		try {
+			server.close();
+		} catch (IOException e) {
+			// Already closed
+		}
+	}
+
+	private void handle(Socket socket){
+		try {
+			try {
+				BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+				DaemonRequest request = mapper.readValue(in.readLine(), DaemonRequest.class);
+				DaemonResponse response = respond(request);
+				Writer out = new OutputStreamWriter(socket.getOutputStream(), "UTF-8");
+				out.write(mapper.writeValueAsString(response));
+				out.write('\n');
+				out.flush();
+			} finally {
+				socket.close();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private DaemonResponse respond(DaemonRequest request){
+		DaemonResponse response = new DaemonResponse();
+		if (!key.equals(request.getKey())){
+			System.out.println("Compile daemon is stale, stopping");
+			response.setStale(true);
+			stop();
+			return response;
+		}
+		try {
+			switch (request.getType()){
+			case TABLES:
+				response.setTables(tables);
+				response.setEnvironment(environment);
+				break;
+			case EXPLAIN:
+				response.setExplain(hive.explain(request.getTaskName(), request.getSource()));
+				break;
+			case STOP:
+				stop();
+				break;
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+			response.setError(e.toString());
+		}
+		return response;
+	}
+}
@@ -0,0 +1,72 @@
+package batch_build.mojo.pig;
+
+import java.io.IOException;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.InputFormat;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.pig.Expression;
+import org.apache.pig.LoadFunc;
+import org.apache.pig.LoadMetadata;
+import org.apache.pig.ResourceSchema;
+import org.apache.pig.ResourceStatistics;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.PigSplit;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.impl.logicalLayer.FrontendException;
+import org.apache.pig.impl.util.Utils;
+
+/**
+ * Stands in for HCatLoader while scripts are parsed. It never reads anything, it only
+ * gives pig the table schema (from the table DDL) so field references in the script resolve.
+ */
+public class HCatLineageLoader extends LoadFunc implements LoadMetadata {
+
+	@Override
+	public String relativeToAbsolutePath(String location, Path curDir) {
+		// A table name, not a path
+		return location;
+	}
+
+	@Override
+	public ResourceSchema getSchema(String location, Job job) throws IOException {
+		String schema = job.getConfiguration().get(PigExplainer.SCHEMA_PREFIX + PigExplainer.tableId(location));
+		if (schema == null){
+			throw new FrontendException("Unknown table " + location);
+		}
+		return new ResourceSchema(Utils.getSchemaFromString(schema));
+	}
+
+	@Override
+	public ResourceStatistics getStatistics(String location, Job job) {
+		return null;
+	}
+
+	@Override
+	public String[] getPartitionKeys(String location, Job job) {
+		return null;
+	}
+
+	@Override
+	public void setPartitionFilter(Expression partitionFilter) {
+	}
+
+	@Override
+	public void setLocation(String location, Job job) {
+	}
+
+	@Override
+	public InputFormat getInputFormat() {
+		throw new UnsupportedOperationException("Only for lineage");
+	}
+
+	@Override
+	public void prepareToRead(RecordReader reader, PigSplit split) {
+		throw new UnsupportedOperationException("Only for lineage");
+	}
+
+	@Override
+	public Tuple getNext() {
+		throw new UnsupportedOperationException("Only for lineage");
+	}
+}
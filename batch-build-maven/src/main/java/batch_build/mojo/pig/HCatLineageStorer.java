@@ -0,0 +1,51 @@
+package batch_build.mojo.pig;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.OutputFormat;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.pig.StoreFunc;
+import org.apache.pig.data.Tuple;
+
+/**
+ * Stands in for HCatStorer while scripts are parsed, never writes anything
+ */
+public class HCatLineageStorer extends StoreFunc {
+
+	public HCatLineageStorer() {
+	}
+
+	/**
+	 * Same arguments as HCatStorer (partition spec, schema), ignored
+	 */
+	public HCatLineageStorer(String partitions) {
+	}
+
+	public HCatLineageStorer(String partitions, String schema) {
+	}
+
+	@Override
+	public String relToAbsPathForStoreLocation(String location, Path curDir) {
+		// A table name, not a path
+		return location;
+	}
+
+	@Override
+	public void setStoreLocation(String location, Job job) {
+	}
+
+	@Override
+	public OutputFormat getOutputFormat() {
+		throw new UnsupportedOperationException("Only for lineage");
+	}
+
+	@Override
+	public void prepareToWrite(RecordWriter writer) {
+		throw new UnsupportedOperationException("Only for lineage");
+	}
+
+	@Override
+	public void putNext(Tuple t) {
+		throw new UnsupportedOperationException("Only for lineage");
+	}
+}
@@ -0,0 +1,306 @@
+package batch_build.mojo.pig;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.lang.reflect.Field;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.hadoop.hive.serde2.typeinfo.ListTypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.MapTypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.PrimitiveTypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.StructTypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoUtils;
+import org.apache.pig.ExecType;
+import org.apache.pig.FuncSpec;
+import org.apache.pig.PigServer;
+import org.apache.pig.impl.PigContext;
+import org.apache.pig.newplan.logical.relational.LogicalPlanData;
+import org.apache.pig.tools.grunt.GruntParser;
+
+import batch_build.common.model.resources.FileLocationResource;
+import batch_build.common.model.resources.HCatResource;
+import batch_build.common.model.resources.HCatResource.HCatColumn;
+import batch_build.common.model.resources.Resource;
+import batch_build.mojo.ExplainResult;
+import batch_build.mojo.ScriptExplainer;
+
+/**
+ * Explains pig scripts by parsing them into a logical plan, without running anything.
+ * Starting pig costs far more than parsing a script so started servers are pooled and
+ * reused, one per concurrent caller. Scripts that could leave functions, macros or jars
+ * behind for the next script get a server of their own instead, so a script explains the
+ * same whichever scripts came before it. HCatalog loads and stores resolve against the
+ * tables of the model, anything else is taken to be a file location.
+ */
+public class PigExplainer implements ScriptExplainer {
+
+	static final String SCHEMA_PREFIX = "batch.lineage.schema.";
+
+	private static final String[] HCAT_LOADERS = {
+		"org.apache.hive.hcatalog.pig.HCatLoader", "org.apache.hcatalog.pig.HCatLoader" };
+	private static final String[] HCAT_STORERS = {
+		"org.apache.hive.hcatalog.pig.HCatStorer", "org.apache.hcatalog.pig.HCatStorer" };
+
+	// Statements whose functions, macros or jars outlive the script. Anything that only looks
+	// like one, e.g. in a string, just costs a server
+	private static final Pattern CONTEXT_STATEMENT = Pattern.compile("(^|;)\\s*(define|register|import)\\s",
+			Pattern.CASE_INSENSITIVE | Pattern.MULTILINE);
+
+	private final Properties properties = new Properties();
+	private final ConcurrentLinkedQueue<PigServer> idle = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger started = new AtomicInteger();
+	// Held exclusively while a script that registers jars is explained
+	private final ReadWriteLock isolation = new ReentrantReadWriteLock();
+
+	/**
+	 * @param resources the tables scripts may load from or store to
+	 */
+	public PigExplainer(Collection<? extends Resource> resources) {
+		// So UDFs on the project classpath resolve
+		PigContext.setClassLoader(Thread.currentThread().getContextClassLoader());
+		for (Resource resource : resources){
+			if (resource instanceof HCatResource){
+				properties.setProperty(SCHEMA_PREFIX + resource.getUniqueIdentifier(),
+						pigSchema(((HCatResource) resource).getColumns()));
+			}
+		}
+	}
+
+	@Override
+	public ExplainResult explain(String taskName, String source) throws IOException {
+		System.out.println("Explaining " + taskName);
+		if (CONTEXT_STATEMENT.matcher(source).find()){
+			return explainIsolated(taskName, source);
+		}
+		isolation.readLock().lock();
+		try {
+			PigServer pig = idle.poll();
+			if (pig == null){
+				pig = startServer();
+			}
+			ExplainResult result;
+			try {
+				result = explain(pig, source);
+			} catch (IOException | RuntimeException e) {
+				// Not worth working out what state a failed parse left behind
+				pig.shutdown();
+				throw new RuntimeException("Failed to explain pig script " + taskName, e);
+			}
+			idle.add(pig);
+			return result;
+		} finally {
+			isolation.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Explains the script on a server that is shut down after, taking its functions and
+	 * macros with it. Registered jars go on pig's classloader, which every server shares, so
+	 * nothing else is explained meanwhile and the classloader is put back after.
+	 */
+	private ExplainResult explainIsolated(String taskName, String source) throws IOException {
+		isolation.writeLock().lock();
+		ClassLoader pigClassLoader = PigContext.getClassLoader();
+		ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+		// Jars are added to this rather than the shared one
+		PigContext.setClassLoader(new URLClassLoader(new URL[0], pigClassLoader));
+		PigServer pig = null;
+		try {
+			pig = startServer();
+			return explain(pig, source);
+		} catch (IOException | RuntimeException e) {
+			throw new RuntimeException("Failed to explain pig script " + taskName, e);
+		} finally {
+			if (pig != null){
+				pig.shutdown();
+			}
+			PigContext.setClassLoader(pigClassLoader);
+			Thread.currentThread().setContextClassLoader(contextClassLoader);
+			clearClassCache();
+			isolation.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Pig caches the classes it resolves by name, per thread, which would keep those from the jars
+	 */
+	private static void clearClassCache(){
+		try {
+			Field field = PigContext.class.getDeclaredField("classCache");
+			field.setAccessible(true);
+			((ThreadLocal<?>) field.get(null)).remove();
+		} catch (NoSuchFieldException | IllegalAccessException e) {
+			throw new RuntimeException("Failed to clear pig's class cache", e);
+		}
+	}
+
+	/**
+	 * Number of pig servers started, one per concurrent caller and one per script that
+	 * needed a server of its own
+	 */
+	public int getStarted(){
+		return started.get();
+	}
+
+	public void shutdown(){
+		PigServer pig;
+		while ((pig = idle.poll()) != null){
+			pig.shutdown();
+		}
+	}
+
+	private PigServer startServer() throws IOException {
+		started.incrementAndGet();
+		Properties serverProperties = new Properties();
+		serverProperties.putAll(properties);
+		PigServer pig = new PigServer(ExecType.LOCAL, serverProperties);
+		// Type checks statements against the table schemas, without looking at inputs or outputs
+		pig.setValidateEachStatement(true);
+		for (String loader : HCAT_LOADERS){
+			pig.getPigContext().registerFunction(loader, new FuncSpec(HCatLineageLoader.class.getName()));
+		}
+		for (String storer : HCAT_STORERS){
+			pig.getPigContext().registerFunction(storer, new FuncSpec(HCatLineageStorer.class.getName()));
+		}
+		return pig;
+	}
+
+	private ExplainResult explain(PigServer pig, String source) throws IOException {
+		// Statements go into a batch that is thrown away rather than executed
+		pig.setBatchOn();
+		try {
+			String script = pig.getPigContext().doParamSubstitution(new BufferedReader(new StringReader(source)));
+			GruntParser grunt = new LineageGruntParser(script, pig);
+			grunt.setInteractive(false);
+			grunt.parseStopOnError(true);
+			LogicalPlanData plan = pig.getLogicalPlanData();
+			return new ExplainResult(resourceIds(plan.getSources(), plan.getLoadFuncs()),
+					resourceIds(plan.getSinks(), plan.getStoreFuncs()));
+		} catch (org.apache.pig.tools.pigscript.parser.ParseException e) {
+			throw new IOException(e);
+		} finally {
+			pig.discardBatch();
+		}
+	}
+
+	private Set<String> resourceIds(List<String> locations, List<String> funcs){
+		Set<String> ids = new TreeSet<>();
+		for (int i = 0; i < locations.size(); i++){
+			String func = funcs.get(i);
+			if (func.equals(HCatLineageLoader.class.getName()) || func.equals(HCatLineageStorer.class.getName())){
+				String id = tableId(locations.get(i));
+				if (!properties.containsKey(SCHEMA_PREFIX + id)){
+					throw new RuntimeException("Unknown table " + locations.get(i));
+				}
+				ids.add(id);
+			} else {
+				ids.add(new FileLocationResource(locations.get(i)).getUniqueIdentifier());
+			}
+		}
+		return ids;
+	}
+
+	/**
+	 * Resource id of a table as written in a script, db.table or just table
+	 */
+	static String tableId(String location){
+		String table = location.trim().toLowerCase();
+		return "hcat:" + (table.contains(".") ? table : "default." + table);
+	}
+
+	/**
+	 * The schema HCatLoader would give pig for the table
+	 */
+	private static String pigSchema(List<HCatColumn> columns){
+		List<String> fields = new ArrayList<>();
+		for (HCatColumn column : columns){
+			fields.add(column.getName() + ":" + pigType(TypeInfoUtils.getTypeInfoFromTypeString(column.getType())));
+		}
+		return StringUtils.join(fields, ',');
+	}
+
+	private static String pigType(TypeInfo type){
+		switch (type.getCategory()){
+		case LIST:
+			return "{(innerfield:" + pigType(((ListTypeInfo) type).getListElementTypeInfo()) + ")}";
+		case MAP:
+			return "map[" + pigType(((MapTypeInfo) type).getMapValueTypeInfo()) + "]";
+		case STRUCT:
+			StructTypeInfo struct = (StructTypeInfo) type;
+			List<String> fields = new ArrayList<>();
+			for (int i = 0; i < struct.getAllStructFieldNames().size(); i++){
+				fields.add(struct.getAllStructFieldNames().get(i) + ":"
+						+ pigType(struct.getAllStructFieldTypeInfos().get(i)));
+			}
+			return "(" + StringUtils.join(fields, ',') + ")";
+		case PRIMITIVE:
+			switch (((PrimitiveTypeInfo) type).getPrimitiveCategory()){
+			case BOOLEAN:
+				return "boolean";
+			case BYTE:
+			case SHORT:
+			case INT:
+				return "int";
+			case LONG:
+				return "long";
+			case FLOAT:
+				return "float";
+			case DOUBLE:
+				return "double";
+			case STRING:
+			case VARCHAR:
+				return "chararray";
+			case DATE:
+			case TIMESTAMP:
+				return "datetime";
+			case DECIMAL:
+				return "bigdecimal";
+			default:
+				return "bytearray";
+			}
+		default:
+			return "bytearray";
+		}
+	}
+
+	/**
+	 * Parses scripts without side effects: fs and shell commands are skipped and settings
+	 * are not kept on the pooled server. Jars that are not on this machine are skipped too,
+	 * their UDFs may still resolve from the project classpath.
+	 */
+	private static class LineageGruntParser extends GruntParser {
+
+		private LineageGruntParser(String script, PigServer pig) {
+			super(new StringReader(script), pig);
+			// The explain state is what makes grunt skip fs, sh, rm etc.
+			setExplainState(new ExplainState(null, null, null, false, null));
+		}
+
+		@Override
+		protected void processSet(String key, String value) {
+		}
+
+		@Override
+		protected void processRegister(String jar) throws IOException {
+			if (new File(jar).isFile()){
+				super.processRegister(jar);
+			}
+		}
+	}
+}